@@ -19,8 +19,3 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
-
--keepclasseswithmembers class com.ginkage.bpmdetect.BpmDetect {
-    void onCreate(float[]);
-    void onProcess(float[], float);
-}
@@ -0,0 +1,63 @@
+package com.ginkage.bpmdetect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands the estimates of the one analysis thread to whichever renderers are currently attached.
+ * Renderers come and go with their surfaces, so the last axis and estimate are kept to bring a
+ * new one up to date as soon as it subscribes, instead of waiting for the next window.
+ */
+class BpmListeners implements BpmDetect.BpmCallback {
+    private final List<BpmDetect.BpmCallback> listeners = new ArrayList<>();
+    private float[] xAxis;
+    private float[] yAxis;
+    private float bpm;
+    private long position = -1;
+
+    synchronized void add(BpmDetect.BpmCallback listener) {
+        if (listeners.contains(listener)) {
+            return;
+        }
+        listeners.add(listener);
+        if (xAxis != null) {
+            listener.onCreate(xAxis);
+            if (position >= 0) {
+                // Not a fresh capture, keep it out of the latency traces
+                listener.onProcess(yAxis, bpm, position, -1);
+            }
+        }
+    }
+
+    synchronized void remove(BpmDetect.BpmCallback listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public synchronized void onCreate(float[] xAxis) {
+        this.xAxis = xAxis.clone();
+        this.yAxis = new float[xAxis.length];
+        this.position = -1;
+        for (BpmDetect.BpmCallback listener : listeners) {
+            listener.onCreate(xAxis);
+        }
+    }
+
+    @Override
+    public synchronized void onProcess(float[] yAxis, float bpm, long position, long captureNanos) {
+        // The native side reuses the array, keep a copy for late subscribers
+        System.arraycopy(yAxis, 0, this.yAxis, 0, this.yAxis.length);
+        this.bpm = bpm;
+        this.position = position;
+        for (BpmDetect.BpmCallback listener : listeners) {
+            listener.onProcess(yAxis, bpm, position, captureNanos);
+        }
+    }
+
+    @Override
+    public synchronized void onBands(float[] envelopes, float[] correlations, float[] weights) {
+        for (BpmDetect.BpmCallback listener : listeners) {
+            listener.onBands(envelopes, correlations, weights);
+        }
+    }
+}
@@ -1,34 +1,134 @@
 package com.ginkage.bpmdetect;
 
+import android.os.Process;
 import android.util.Log;
 
 public class BpmThread extends Thread {
     private static final String TAG = "BpmThread";
+
+    // Analyze a new window every 50 ms of audio while the tempo is changing, and back off to
+    // once a second while it is locked
+    private static final int MIN_HOP_SIZE = CaptureThread.SAMPLE_RATE / 20;
+    private static final int MAX_HOP_SIZE = CaptureThread.SAMPLE_RATE;
+    private static final long WAIT_TIMEOUT_MS = 100;
+
     private boolean isRunning = true;
     private final Object runLock = new Object();
-    private final CircularBuffer samples;
+    private final SampleBuffer samples;
     private final int size;
+    private final BpmDetect.Engine engine;
+    private final SilenceGate gate;
+    private final TempoCache tempoCache;
+    private final TempoHistory history;
     private final BpmDetect.BpmCallback callback;
+    private final boolean pinToEfficiencyCores;
+    private final boolean adaptiveWeights;
+    private volatile BpmDetect bpmDetect;
+    private final AnalysisScheduler scheduler =
+            new AnalysisScheduler(CaptureThread.SAMPLE_RATE, MIN_HOP_SIZE, MAX_HOP_SIZE);
+    private long skippedWindows;
+    private long gapWindows;
 
-    BpmThread(CircularBuffer circularBuffer, int size, BpmDetect.BpmCallback callback) {
+    /**
+     * @param gate Suspends the analysis while the audio is silent, may be null.
+     * @param history Timeline of the session's tempo, may be null.
+     * @param adaptiveWeights Weigh the bands by their clarity, for the engines that have bands.
+     */
+    BpmThread(BpmDetect.Engine engine, SampleBuffer circularBuffer, int size, SilenceGate gate,
+            TempoCache tempoCache, TempoHistory history, boolean pinToEfficiencyCores,
+            boolean adaptiveWeights, BpmDetect.BpmCallback callback) {
+        super(TAG);
+        this.engine = engine;
         this.samples = circularBuffer;
         this.size = size;
+        this.gate = gate;
+        this.tempoCache = tempoCache;
+        this.history = history;
+        this.pinToEfficiencyCores = pinToEfficiencyCores;
+        this.adaptiveWeights = adaptiveWeights;
         this.callback = callback;
     }
 
     @Override
     public void run() {
-        BpmDetect bpmDetect = new BpmDetect(samples, size, callback);
+        // Analysis must never compete with the capture or the rendering
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        if (pinToEfficiencyCores && !BpmDetect.pinToEfficiencyCores()) {
+            Log.i(TAG, "No efficiency cores to run the analysis on");
+        }
 
+        BpmDetect bpmDetect = new BpmDetect(
+                engine, samples, CaptureThread.SAMPLE_RATE, size, tempoCache, callback);
+        bpmDetect.setScheduler(scheduler);
+        bpmDetect.setHistory(history);
+        if (adaptiveWeights) {
+            bpmDetect.setAdaptiveWeights(true);
+        }
+        this.bpmDetect = bpmDetect;
+
+        // Incremental engines start with the first hop instead of a whole window
+        long next = bpmDetect.isIncremental() ? MIN_HOP_SIZE : size;
         while (isRunning) {
+            try {
+                if (!samples.awaitWritten(next, WAIT_TIMEOUT_MS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for samples", e);
+                continue;
+            }
+
+            if (gate != null && gate.isSilent()) {
+                // Hold the last tempo, and check again soon so that the analysis resumes as soon
+                // as the audio does. A silence is usually between tracks, so look up the next
+                // one in the tempo cache as it starts.
+                skippedWindows++;
+                scheduler.reset();
+                bpmDetect.restartWarmup();
+                next = samples.getLatest() + MIN_HOP_SIZE;
+                continue;
+            }
+
+            // A window across lost audio has a broken envelope: hold the last tempo until the
+            // whole window comes after the gap. Incremental engines just carry on.
+            long gap = samples.getDiscontinuity();
+            if (!bpmDetect.isIncremental() && gap > samples.getLatest() - size) {
+                gapWindows++;
+                scheduler.reset();
+                next = gap + size;
+                continue;
+            }
+
             synchronized (runLock) {
                 if (isRunning) {
                     bpmDetect.processSamples();
                 }
             }
+            next = samples.getLatest() + scheduler.getHop();
+        }
+
+        Log.i(TAG, "Analysis: " + scheduler + ", " + skippedWindows + " skipped in silence, "
+                + gapWindows + " across capture gaps, " + samples.getRetriedReads()
+                + " reads overwritten and retried");
+        if (bpmDetect.isIncremental()) {
+            Log.i(TAG, "Samples overwritten before the analysis got them: "
+                    + bpmDetect.getGapSamples());
         }
 
-        bpmDetect.destroy();
+        synchronized (runLock) {
+            this.bpmDetect = null;
+            bpmDetect.destroy();
+        }
+    }
+
+    void reportMemory(MemoryBudget budget) {
+        synchronized (runLock) {
+            BpmDetect detect = bpmDetect;
+            if (detect != null) {
+                budget.add("bpm.window", detect.getWindowBytes());
+                budget.add("bpm.native", detect.getNativeMemoryBytes());
+            }
+        }
     }
 
     void shutdown() {
@@ -42,7 +142,7 @@ public class BpmThread extends Thread {
                 join();
                 retry = false;
             } catch (InterruptedException e) {
-                Log.w(TAG, "Exception while stopping capture thread", e);
+                Log.w(TAG, "Exception while stopping BPM thread", e);
             }
         }
     }
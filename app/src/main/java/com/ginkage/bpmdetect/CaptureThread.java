@@ -3,50 +3,139 @@ package com.ginkage.bpmdetect;
 import android.media.AudioFormat;
 import android.media.AudioPlaybackCaptureConfiguration;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.projection.MediaProjection;
+import android.os.Process;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+
 import static android.media.AudioAttributes.USAGE_MEDIA;
 import static android.media.AudioAttributes.USAGE_UNKNOWN;
 import static android.media.AudioFormat.CHANNEL_IN_STEREO;
+import static android.media.AudioFormat.ENCODING_PCM_16BIT;
 import static android.media.AudioFormat.ENCODING_PCM_FLOAT;
 
 public class CaptureThread extends Thread {
     private static final String TAG = "CaptureThread";
 
-    private static final int BUFFER_SIZE = 524288;
-    static final int BPM_BUFFER_SIZE = 131072;
+    // 1.4 s of audio, which reaches down to 66 BPM (see TempoAccuracyBenchmark)
+    static final int BPM_BUFFER_SIZE = 65536;
     static final int SAMPLE_RATE = 48000;
     private static final int CHANNEL_CONFIG = CHANNEL_IN_STEREO;
-    private static final int AUDIO_FORMAT = ENCODING_PCM_FLOAT;
+    static final int BLOCK_SIZE = 512;
+
+    // Rings only need to hold what their readers take, plus a few blocks written meanwhile.
+    // A reader that stalls for longer finds its copy overwritten and reads again.
+    private static final int RING_SLACK = 8 * BLOCK_SIZE;
+    private static final int MONO_BUFFER_SIZE = BPM_BUFFER_SIZE + RING_SLACK;
+    private static final int STEREO_BUFFER_SIZE = 2 * RenderThread.WINDOW_SIZE + RING_SLACK;
+    // 100 ms of audio in the AudioRecord buffer, unless the device needs more
+    private static final int RECORD_BUFFER_FRAMES = SAMPLE_RATE / 10;
+    // In the low-latency mode: 20 ms in the AudioRecord buffer, read in half blocks
+    private static final int LOW_LATENCY_RECORD_FRAMES = SAMPLE_RATE / 50;
+    private static final int LOW_LATENCY_READ_SIZE = BLOCK_SIZE / 2;
+    // A block that ends this far from where the previous one leads, in the hardware time,
+    // follows lost audio
+    private static final long DISCONTINUITY_NANOS = 2_000_000;
+    private static final long DISCONTINUITY_FRAMES =
+            DISCONTINUITY_NANOS * SAMPLE_RATE / 1_000_000_000L;
+    // About one second of blocks can wait for the session log writer
+    private static final int RECORDER_SECONDS = 1;
+    // Suspend the analysis after half a second of silence
+    private static final int SILENCE_HOLD_FRAMES = SAMPLE_RATE / 2;
 
     private boolean isRunning;
     private final Object runLock = new Object();
     private AudioRecord audioRecord;
-    private final float[] buffer = new float[512];
-    private final CircularBuffer stereoBuffer = new CircularBuffer(2 * BUFFER_SIZE);
-    private final CircularBuffer ampBuffer = new CircularBuffer(BUFFER_SIZE);
+    private final TempoCache tempoCache;
     private BpmThread bpmThread;
+    // The analysis lives as long as the capture, renderers only subscribe to it
+    private final BpmListeners bpmListeners = new BpmListeners();
+    private int recordBufferBytes;
+
+    // Capture health: if the thread comes back later than the record buffer can hold, frames may
+    // have been dropped. Only counted, the gaps are confirmed from the hardware time.
+    private long recordBufferNanos;
+    private int recordBufferFrames;
+    private long lastReadNanos;
+    private volatile long lateReadCount;
+    private volatile long readErrorCount;
+
+    // Hardware presentation times: the capture time of every block, and the gaps between them
+    private final AudioTimestamp audioTimestamp = new AudioTimestamp();
+    private long framesRead;
+    // Server frames that were never read, the server position of a frame read is this far ahead
+    private long frameOffset;
+    private long lastBlockNanos;
+    private volatile long discontinuityCount;
+    private volatile long lostFrames;
+    private volatile long untimedBlocks;
+    // From the capture of the last frame of a block to its write into the rings
+    private final FrameStats writeLatency = new FrameStats();
+
+    private final BpmDetect.Engine engine;
+    // Only the block matching the capture mode is allocated
+    private final boolean fixedPoint;
+    private final boolean lowLatency;
+    private final boolean pinAnalysis;
+    private final boolean adaptiveWeights;
+    private final int readSize;
+    private final float[] buffer;
+    private final short[] fixedBuffer;
+    private final CaptureRings rings;
+    private final TempoHistory history = new TempoHistory(SAMPLE_RATE);
+    private SessionRecorder recorder;
+
+    /**
+     * @param tempoCache Cache of settled tempos, may be null.
+     * @param engine Tempo detector behind the analysis thread.
+     * @param fixedPoint Capture 16-bit PCM and run the fixed-point BPM pipeline, which halves the
+     *     ring buffers and memory traffic on low-end devices.
+     * @param offHeap Keep the ring buffers in direct buffers outside of the Java heap.
+     * @param lowLatency Keep a small record buffer and read it in small blocks, so that the audio
+     *     reaches the rings sooner, at the cost of more wake-ups.
+     * @param pinAnalysis Keep the analysis on the efficiency cores, where the device has them.
+     * @param adaptiveWeights Weigh the wavelet bands by how clearly each one shows the beat.
+     */
+    CaptureThread(TempoCache tempoCache, BpmDetect.Engine engine, boolean fixedPoint,
+            boolean offHeap, boolean lowLatency, boolean pinAnalysis, boolean adaptiveWeights) {
+        super(TAG);
+        this.tempoCache = tempoCache;
+        this.engine = engine;
+        this.fixedPoint = fixedPoint;
+        this.lowLatency = lowLatency;
+        this.pinAnalysis = pinAnalysis;
+        this.adaptiveWeights = adaptiveWeights;
+        this.readSize = lowLatency ? LOW_LATENCY_READ_SIZE : BLOCK_SIZE;
+        this.buffer = fixedPoint ? null : new float[BLOCK_SIZE];
+        this.fixedBuffer = fixedPoint ? new short[BLOCK_SIZE] : null;
+        this.rings = new CaptureRings(
+                STEREO_BUFFER_SIZE, MONO_BUFFER_SIZE, fixedPoint, offHeap, SILENCE_HOLD_FRAMES,
+                engine.signedMix);
+    }
+
+    /**
+     * Streams every captured block to a session log for later replay. Must be called before
+     * {@link #startCapture}.
+     */
+    void recordTo(File file) throws IOException {
+        recorder = new SessionRecorder(file, SAMPLE_RATE, 2, fixedPoint, BLOCK_SIZE,
+                RECORDER_SECONDS * 2 * SAMPLE_RATE / readSize);
+    }
 
     @Override
     public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
         while (isRunning) {
             synchronized (runLock) {
                 if (isRunning && audioRecord != null) {
-                    int samples = audioRecord.read(
-                            buffer, 0, buffer.length, AudioRecord.READ_BLOCKING);
-                    if (samples > 0) {
-                        stereoBuffer.write(buffer, samples);
-
-                        int frames = samples / 2;
-                        for (int i = 0, t = 0; i < frames; i++) {
-                            // Read two elements, then write one back.
-                            // Using the same array for input and output is not very safe,
-                            // but should be fine in this case.
-                            buffer[i] = (float) Math.hypot(buffer[t++], buffer[t++]);
-                        }
-
-                        ampBuffer.write(buffer, frames);
+                    if (fixedPoint) {
+                        readFixed();
+                    } else {
+                        readFloat();
                     }
                 }
             }
@@ -57,10 +146,171 @@ public class CaptureThread extends Thread {
         }
     }
 
-    CircularBuffer getBuffer(BpmDetect.BpmCallback callback) {
-        bpmThread = new BpmThread(ampBuffer, BPM_BUFFER_SIZE, callback);
-        bpmThread.start();
-        return stereoBuffer;
+    private void readFloat() {
+        int samples = audioRecord.read(buffer, 0, readSize, AudioRecord.READ_BLOCKING);
+        long captureNanos = checkRead(samples);
+        if (samples > 0) {
+            if (recorder != null) {
+                recorder.record(buffer, samples, captureNanos);
+            }
+            long start = Tracer.begin();
+            rings.write(buffer, samples, captureNanos);
+            Tracer.end("capture.write", start, rings.getMono().getLatest());
+            traceLatency(captureNanos);
+        }
+    }
+
+    private void readFixed() {
+        int samples = audioRecord.read(fixedBuffer, 0, readSize, AudioRecord.READ_BLOCKING);
+        long captureNanos = checkRead(samples);
+        if (samples > 0) {
+            if (recorder != null) {
+                recorder.record(fixedBuffer, samples, captureNanos);
+            }
+            long start = Tracer.begin();
+            rings.write(fixedBuffer, samples, captureNanos);
+            Tracer.end("capture.write", start, rings.getMono().getLatest());
+            traceLatency(captureNanos);
+        }
+    }
+
+    /**
+     * Checks the capture health after a read. If the hardware time shows that audio was lost
+     * before the block that was just read, marks the rings and the session log.
+     *
+     * @return System.nanoTime() at which the last frame of the block was captured, from the
+     *     hardware timestamp if there is one, or else the time the read returned.
+     */
+    private long checkRead(int samples) {
+        long now = System.nanoTime();
+        if (samples < 0) {
+            readErrorCount++;
+        }
+        if (lastReadNanos != 0 && now - lastReadNanos > recordBufferNanos) {
+            lateReadCount++;
+        }
+        lastReadNanos = now;
+        if (samples <= 0) {
+            return now;
+        }
+
+        int frames = samples / 2;
+        framesRead += frames;
+        long captureNanos = now;
+        if (audioRecord.getTimestamp(audioTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC)
+                == AudioRecord.SUCCESS) {
+            // Frames the server has captured by now, those not read yet wait in the record buffer.
+            // More than it holds means the rest was dropped, so the frames read from now on are
+            // that much further ahead in the server position.
+            long serverFrames = audioTimestamp.framePosition
+                    + (now - audioTimestamp.nanoTime) * SAMPLE_RATE / 1_000_000_000L;
+            long backlog = serverFrames - (framesRead + frameOffset);
+            if (backlog > recordBufferFrames + DISCONTINUITY_FRAMES) {
+                frameOffset += backlog - recordBufferFrames;
+                lostFrames += backlog - recordBufferFrames;
+            } else if (backlog < -DISCONTINUITY_FRAMES) {
+                // The server position went back, as it does when the capture is rerouted
+                frameOffset += backlog;
+            }
+
+            // The timestamp is for some recent frame, extrapolate to the last one of the block
+            captureNanos = audioTimestamp.nanoTime
+                    + (framesRead + frameOffset - audioTimestamp.framePosition)
+                    * 1_000_000_000L / SAMPLE_RATE;
+            if (lastBlockNanos != 0) {
+                long drift = captureNanos - lastBlockNanos - frames * 1_000_000_000L / SAMPLE_RATE;
+                if (Math.abs(drift) > DISCONTINUITY_NANOS) {
+                    discontinuityCount++;
+                }
+                // Blocks that overlap in time lost nothing between them
+                if (drift > DISCONTINUITY_NANOS) {
+                    rings.markDiscontinuity();
+                    if (recorder != null) {
+                        recorder.markGap(2 * drift * SAMPLE_RATE / 1_000_000_000L);
+                    }
+                }
+            }
+            lastBlockNanos = captureNanos;
+        } else {
+            untimedBlocks++;
+            lastBlockNanos = 0;
+        }
+        return captureNanos;
+    }
+
+    private void traceLatency(long captureNanos) {
+        // Without a hardware timestamp, the block was stamped when the read returned
+        if (lastBlockNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        writeLatency.add(now - captureNanos);
+        if (Tracer.isEnabled()) {
+            Tracer.span("latency.capture", captureNanos, now, rings.getMono().getLatest());
+        }
+    }
+
+    // Reads that came back later than the record buffer lasts, whether or not frames were lost
+    long getLateReadCount() {
+        return lateReadCount;
+    }
+
+    long getReadErrorCount() {
+        return readErrorCount;
+    }
+
+    // Blocks that did not follow the previous one in the hardware time
+    long getDiscontinuityCount() {
+        return discontinuityCount;
+    }
+
+    // Frames the server captured but dropped before they were read
+    long getLostFrames() {
+        return lostFrames;
+    }
+
+    // Blocks read while the device had no timestamp, stamped with the time the read returned
+    long getUntimedBlocks() {
+        return untimedBlocks;
+    }
+
+    /** Capture-to-ring latency, only consistent once the capture has stopped. */
+    FrameStats getWriteLatency() {
+        return writeLatency;
+    }
+
+    SilenceGate getSilenceGate() {
+        return rings.getGate();
+    }
+
+    TempoHistory getTempoHistory() {
+        return history;
+    }
+
+    /**
+     * Subscribes a renderer to the tempo estimates, it receives the latest one right away.
+     *
+     * @return The stereo ring to draw the spectrum from.
+     */
+    SampleBuffer subscribe(BpmDetect.BpmCallback listener) {
+        bpmListeners.add(listener);
+        return rings.getStereo();
+    }
+
+    void unsubscribe(BpmDetect.BpmCallback listener) {
+        bpmListeners.remove(listener);
+    }
+
+    /** Adds the bytes held by the capture stages and the BPM analysis to the budget. */
+    void reportMemory(MemoryBudget budget) {
+        budget.add("capture.record", recordBufferBytes);
+        budget.add("capture.block", fixedPoint ? BLOCK_SIZE * 2 : BLOCK_SIZE * 4);
+        budget.add("ring.stereo", rings.getStereo().getMemoryBytes());
+        budget.add("ring.mono", rings.getMono().getMemoryBytes());
+        budget.add("tempo.history", history.getMemoryBytes());
+        if (bpmThread != null) {
+            bpmThread.reportMemory(budget);
+        }
     }
 
     void startCapture(MediaProjection mediaProjection) {
@@ -70,19 +320,31 @@ public class CaptureThread extends Thread {
                         .addMatchingUsage(USAGE_UNKNOWN)
                         .build();
 
-        int minSize = Math.max(BUFFER_SIZE * 4 * 2,
-                AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT));
+        int audioFormat = fixedPoint ? ENCODING_PCM_16BIT : ENCODING_PCM_FLOAT;
+        int bytesPerSample = fixedPoint ? 2 : 4;
+        int recordFrames = lowLatency ? LOW_LATENCY_RECORD_FRAMES : RECORD_BUFFER_FRAMES;
+        int minSize = Math.max(recordFrames * bytesPerSample * 2,
+                AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_CONFIG, audioFormat));
+        recordBufferBytes = minSize;
 
         AudioRecord record = new AudioRecord.Builder()
                 .setAudioPlaybackCaptureConfig(configuration)
                 .setAudioFormat(new AudioFormat.Builder()
                         .setSampleRate(SAMPLE_RATE)
                         .setChannelMask(CHANNEL_CONFIG)
-                        .setEncoding(AUDIO_FORMAT)
+                        .setEncoding(audioFormat)
                         .build())
                 .setBufferSizeInBytes(minSize)
                 .build();
         record.startRecording();
+        recordBufferFrames = record.getBufferSizeInFrames();
+        recordBufferNanos = recordBufferFrames * 1_000_000_000L / SAMPLE_RATE;
+
+        // One analysis thread and detector for the whole capture, so that the median stays warm
+        // while the surfaces are recreated
+        bpmThread = new BpmThread(engine, rings.getMono(), BPM_BUFFER_SIZE,
+                rings.getGate(), tempoCache, history, pinAnalysis, adaptiveWeights, bpmListeners);
+        bpmThread.start();
 
         synchronized(runLock) {
             audioRecord = record;
@@ -112,5 +374,15 @@ public class CaptureThread extends Thread {
                 audioRecord = null;
             }
         }
+
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write the session log", e);
+            }
+            Log.i(TAG, "Session log closed, dropped blocks: " + recorder.getDroppedBlocks());
+            recorder = null;
+        }
     }
 }
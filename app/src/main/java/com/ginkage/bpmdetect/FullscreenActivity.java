@@ -68,7 +68,13 @@ public class FullscreenActivity extends AppCompatActivity {
     });
 
     private void startMediaProjectionService() {
-        startService(new Intent(this, MediaProjectionService.class));
+        // Pass the capture options the activity was launched with on to the service
+        Intent intent = new Intent(this, MediaProjectionService.class);
+        Bundle extras = getIntent().getExtras();
+        if (extras != null) {
+            intent.putExtras(extras);
+        }
+        startService(intent);
         connection = new MediaProjectionServiceConnection(this, service -> {
             mediaProjectionService = service;
             if (!isFinishing()) {
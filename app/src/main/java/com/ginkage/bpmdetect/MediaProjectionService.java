@@ -2,6 +2,7 @@ package com.ginkage.bpmdetect;
 
 import static android.app.PendingIntent.FLAG_IMMUTABLE;
 
+import android.app.ActivityManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -11,15 +12,44 @@ import android.content.Intent;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
+
 public class MediaProjectionService extends Service {
+    private static final String TAG = "MediaProjectionService";
 
     private static final int ONGOING_NOTIFICATION_ID = 0x1111;
     private static final String NOTIFICATION_CHANNEL_ID = "BpmDetect";
     private static final String NOTIFICATION_CHANNEL_NAME = "BPM Detector Audio Capture";
+    private static final String TEMPO_CACHE_FILE = "tempo_cache.bin";
+    private static final int TEMPO_CACHE_SIZE = 1024;
+    // The options below are extras of the start intent, booleans unless noted. The activity passes
+    // its own on.
+    // Record the captured audio for replay
+    static final String EXTRA_RECORD_SESSION = "record_session";
+    // Trace the pipeline until the capture stops
+    static final String EXTRA_TRACE = "trace";
+    // Export the session's tempo when it stops
+    static final String EXTRA_TEMPO_HISTORY = "tempo_history";
+    // Capture with a small record buffer and blocks
+    static final String EXTRA_LOW_LATENCY = "low_latency";
+    // Keep the analysis on the efficiency cores, where the device has them (on by default)
+    static final String EXTRA_PIN_ANALYSIS = "pin_analysis";
+    // Weigh the wavelet bands by how clearly each one shows the beat, at the cost of an
+    // autocorrelation per band and window
+    static final String EXTRA_ADAPTIVE_WEIGHTS = "adaptive_weights";
+    // Name of the BpmDetect.Engine to detect the tempo with, a string extra (the wavelet one by
+    // default)
+    static final String EXTRA_ENGINE = "engine";
+    // Log the capture health this often while it changes
+    private static final long HEALTH_REPORT_MS = 10_000;
 
     /** Interface for binding the service to an activity. */
     class LocalBinder extends Binder {
@@ -36,10 +66,30 @@ public class MediaProjectionService extends Service {
     private MediaProjectionManager mediaProjectionManager;
     private MediaProjection mediaProjection;
     private CaptureThread captureThread;
+    private final TempoCache tempoCache = new TempoCache(TEMPO_CACHE_SIZE);
+    private Thread cacheLoader;
 
     private final IBinder binder = new LocalBinder();
     private NotificationManager notificationManager;
     boolean isForeground;
+    private boolean recordSession;
+    private boolean trace;
+    private boolean exportTempo;
+    private boolean lowLatency;
+    private boolean pinAnalysis = true;
+    private boolean adaptiveWeights;
+    private BpmDetect.Engine engine = BpmDetect.Engine.WAVELET;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private String lastHealth;
+    private final Runnable healthReport = new Runnable() {
+        @Override
+        public void run() {
+            if (captureThread != null) {
+                logCaptureHealth(false);
+                handler.postDelayed(this, HEALTH_REPORT_MS);
+            }
+        }
+    };
 
     private final NotificationChannel notificationChannel =
             new NotificationChannel(
@@ -61,12 +111,42 @@ public class MediaProjectionService extends Service {
         if (notificationManager != null) {
             notificationManager.createNotificationChannel(notificationChannel);
         }
+
+        // Off the main thread: the capture can start with an empty cache meanwhile
+        File cacheFile = new File(getFilesDir(), TEMPO_CACHE_FILE);
+        cacheLoader = new Thread(() -> {
+            if (cacheFile.exists()) {
+                try {
+                    tempoCache.load(cacheFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to load tempo cache", e);
+                }
+            }
+        }, "TempoCacheLoader");
+        cacheLoader.start();
     }
 
     @Override
     public void onDestroy() {
         stopCapture();
 
+        // Saving before the load is done would lose the older entries
+        boolean retry = true;
+        while (retry) {
+            try {
+                cacheLoader.join();
+                retry = false;
+            } catch (InterruptedException e) {
+                // Keep waiting
+            }
+        }
+        try {
+            tempoCache.save(new File(getFilesDir(), TEMPO_CACHE_FILE));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save tempo cache", e);
+        }
+        Log.i(TAG, "Tempo cache: " + tempoCache);
+
         if (isForeground) {
             stopForeground(true);
             isForeground = false;
@@ -77,6 +157,24 @@ public class MediaProjectionService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null) {
+            // A start without the extra keeps the option as it was
+            recordSession = intent.getBooleanExtra(EXTRA_RECORD_SESSION, recordSession);
+            trace = intent.getBooleanExtra(EXTRA_TRACE, trace);
+            exportTempo = intent.getBooleanExtra(EXTRA_TEMPO_HISTORY, exportTempo);
+            lowLatency = intent.getBooleanExtra(EXTRA_LOW_LATENCY, lowLatency);
+            pinAnalysis = intent.getBooleanExtra(EXTRA_PIN_ANALYSIS, pinAnalysis);
+            adaptiveWeights = intent.getBooleanExtra(EXTRA_ADAPTIVE_WEIGHTS, adaptiveWeights);
+            String engineName = intent.getStringExtra(EXTRA_ENGINE);
+            if (engineName != null) {
+                try {
+                    engine = BpmDetect.Engine.valueOf(engineName);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Unknown tempo engine: " + engineName);
+                }
+            }
+        }
+
         Notification notification = buildNotification();
 
         if (isForeground) {
@@ -102,18 +200,92 @@ public class MediaProjectionService extends Service {
 
     void startCapture(RenderThread renderThread) {
         if (mediaProjection != null && captureThread == null) {
-            captureThread = new CaptureThread();
+            // Low-RAM devices get the 16-bit fixed-point pipeline with off-heap rings
+            ActivityManager activityManager = getSystemService(ActivityManager.class);
+            boolean lowRam = activityManager != null && activityManager.isLowRamDevice();
+            captureThread = new CaptureThread(tempoCache, engine, lowRam, lowRam, lowLatency,
+                    pinAnalysis, adaptiveWeights);
+            if (recordSession) {
+                File log = new File(getExternalFilesDir(null),
+                        "session-" + System.currentTimeMillis() + ".bpmlog");
+                try {
+                    captureThread.recordTo(log);
+                    Log.i(TAG, "Recording session to " + log);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to start session recording", e);
+                }
+            }
+            Tracer.setEnabled(trace);
             captureThread.startCapture(mediaProjection);
+            lastHealth = null;
+            handler.postDelayed(healthReport, HEALTH_REPORT_MS);
         }
         if (captureThread != null) {
             renderThread.setDataSource(captureThread);
         }
     }
 
+    /** Returns the bytes currently held by each stage of the capture and analysis pipeline. */
+    MemoryBudget getMemoryBudget() {
+        MemoryBudget budget = new MemoryBudget();
+        if (captureThread != null) {
+            captureThread.reportMemory(budget);
+        }
+        return budget;
+    }
+
+    /**
+     * Logs the capture health counters.
+     *
+     * @param always Log even if nothing changed since the last time.
+     */
+    private void logCaptureHealth(boolean always) {
+        String health = "late reads: " + captureThread.getLateReadCount()
+                + ", read errors: " + captureThread.getReadErrorCount()
+                + ", discontinuities: " + captureThread.getDiscontinuityCount()
+                + ", " + captureThread.getLostFrames() + " frames lost, "
+                + captureThread.getUntimedBlocks() + " blocks without timestamp";
+        if (always || !health.equals(lastHealth)) {
+            Log.i(TAG, "Capture " + health);
+            lastHealth = health;
+        }
+    }
+
     void stopCapture() {
         if (captureThread != null) {
+            handler.removeCallbacks(healthReport);
+            Log.i(TAG, "Memory budget: " + getMemoryBudget());
+            Log.i(TAG, "Silence: " + captureThread.getSilenceGate());
             captureThread.stopCapture();
+            logCaptureHealth(true);
+            Log.i(TAG, "Capture to ring latency: " + captureThread.getWriteLatency());
+            TempoHistory history = captureThread.getTempoHistory();
             captureThread = null;
+
+            Log.i(TAG, "Tempo history: " + history);
+            if (exportTempo) {
+                String name = "tempo-" + System.currentTimeMillis();
+                File dir = getExternalFilesDir(null);
+                try {
+                    history.exportCsv(new File(dir, name + ".csv"));
+                    history.exportBinary(new File(dir, name + ".bpmhist"));
+                    Log.i(TAG, "Tempo history written to " + new File(dir, name + ".csv"));
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write the tempo history", e);
+                }
+            }
+
+            if (Tracer.isEnabled()) {
+                Tracer.setEnabled(false);
+                File file = new File(getExternalFilesDir(null),
+                        "trace-" + System.currentTimeMillis() + ".json");
+                try {
+                    Tracer.export(file);
+                    Log.i(TAG, "Trace written to " + file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write the trace", e);
+                }
+            }
         }
         if (mediaProjection != null) {
             mediaProjection.stop();
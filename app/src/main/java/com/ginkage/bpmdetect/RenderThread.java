@@ -4,6 +4,8 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
@@ -14,17 +16,44 @@ import java.util.Locale;
 public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmDetect.BpmCallback {
     private static final String TAG = "RenderThread";
 
-    private static final int WINDOW_SIZE = 2048;
+    static final int WINDOW_SIZE = 2048;
+    // Nothing new to draw, poll the spectrum again after that
+    private static final long IDLE_SLEEP_MS = 10;
+    // Draw the constant-Q note spectrum instead of the FFT bins, one bin per semitone
+    private static final boolean NOTE_SPECTRUM = true;
+    private static final int BINS_PER_NOTE = 1;
+    // Magnitudes are in sine amplitudes, draw them at the scale of the 2048-point FFT
+    private static final float SPECTRUM_GAIN = (float) (WINDOW_SIZE / Math.sqrt(2));
+    // Compute the spectrum on its own thread, rather than here while the canvas is locked.
+    // Turning this off brings back the old behaviour, to compare the frame statistics.
+    private static final boolean SPECTRUM_THREAD = true;
+    // About 60 spectra per second, right after a capture block is written
+    private static final int SPECTRUM_HOP = 3 * CaptureThread.BLOCK_SIZE;
 
     private boolean isRunning;
     private final Object runLock = new Object();
     private final Object bpmLock = new Object();
     private int width;
     private int height;
-    private FftData fft;
-    private CircularBuffer circularBuffer;
+    private SpectrumStage spectrum;
+    private SpectrumThread spectrumThread;
+    private CaptureThread captureThread;
+    private volatile boolean redraw; // The BPM or the surface changed since the last frame
     private SurfaceHolder surfaceHolder;
-    private final FreqData freq = new FreqData(WINDOW_SIZE, CaptureThread.SAMPLE_RATE);
+    private final FreqData freq = new FreqData(WINDOW_SIZE, CaptureThread.SAMPLE_RATE, BINS_PER_NOTE);
+
+    // How long the canvas stays locked, and the time between two posted frames
+    private final FrameStats lockStats = new FrameStats();
+    private final FrameStats frameStats = new FrameStats();
+    private long lastPostNanos;
+
+    // Latest tempo not drawn yet, to trace its latency from the capture
+    private long bpmPosition = -1;
+    private long bpmCaptureNanos = -1;
+
+    RenderThread() {
+        super(TAG);
+    }
 
     @Override
     public void surfaceCreated(@NonNull SurfaceHolder holder) {
@@ -38,6 +67,7 @@ public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmD
         this.height = height;
         this.surfaceHolder = holder;
         freq.resize(width, height);
+        this.redraw = true;
     }
 
     @Override
@@ -56,20 +86,32 @@ public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmD
 
     @Override
     public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+
         while (isRunning) {
+            boolean drawn = false;
             synchronized (runLock) {
-                // Check if we have enough data to process
-                if (isRunning && surfaceHolder != null && fft != null && circularBuffer != null
-                        && circularBuffer.getLatest() >= WINDOW_SIZE * 2) {
+                // Only draw when there is a new spectrum, or something else changed
+                if (isRunning && surfaceHolder != null && spectrum != null
+                        && (!SPECTRUM_THREAD || spectrum.getSlot().update() || redraw)) {
                     // Critical section. Do not allow isRunning to be set false until
                     // we are sure all canvas draw operations are complete.
                     //
                     // If isRunning has been toggled false, inhibit canvas operations.
                     Canvas canvas = null;
+                    long lockNanos = 0;
+                    SpectrumSlot.Frame frame = null;
                     try {
                         canvas = surfaceHolder.lockCanvas(null);
+                        lockNanos = System.nanoTime();
                         if (canvas != null) {
-                            draw(canvas);
+                            if (!SPECTRUM_THREAD && spectrum.process()) {
+                                spectrum.getSlot().update();
+                            }
+                            redraw = false;
+                            frame = spectrum.getSlot().getFront();
+                            draw(canvas, frame);
+                            drawn = true;
                         }
                     } finally {
                         // do this in a finally so that if an exception is thrown
@@ -77,39 +119,84 @@ public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmD
                         // inconsistent state
                         if (canvas != null) {
                             surfaceHolder.unlockCanvasAndPost(canvas);
+                            long now = System.nanoTime();
+                            lockStats.add(now - lockNanos);
+                            if (lastPostNanos != 0) {
+                                frameStats.add(now - lastPostNanos);
+                            }
+                            lastPostNanos = now;
+                            if (frame != null) {
+                                traceFrame(frame, lockNanos, now);
+                            }
                         }
                     }
                 }
             }
+
+            // lockCanvas() paces the loop while drawing, but nothing does while there is no data
+            if (!drawn) {
+                lastPostNanos = 0;
+                SystemClock.sleep(IDLE_SLEEP_MS);
+            }
+        }
+
+        synchronized (runLock) {
+            // The analysis carries on without this surface
+            if (captureThread != null) {
+                captureThread.unsubscribe(this);
+                captureThread = null;
+            }
+        }
+
+        if (spectrumThread != null) {
+            spectrumThread.shutdown();
+        }
+
+        synchronized (runLock) {
+            Log.i(TAG, "Canvas lock: " + lockStats);
+            Log.i(TAG, "Frame time: " + frameStats);
+            if (spectrum != null) {
+                if (!SPECTRUM_THREAD) {
+                    Log.i(TAG, spectrum.toString());
+                }
+                spectrum.destroy();
+                spectrum = null;
+            }
         }
     }
 
-    private void draw(Canvas canvas)
-    {
-        float[] data = fft.execute();
+    // Spans from the capture of the drawn samples to the moment they were posted
+    private void traceFrame(SpectrumSlot.Frame frame, long lockNanos, long postNanos) {
+        if (!Tracer.isEnabled()) {
+            return;
+        }
+        long framePosition = frame.position / 2; // Stereo samples to frames
+        Tracer.span("render.draw", lockNanos, postNanos, framePosition);
+        if (frame.captureNanos > 0) {
+            Tracer.span("latency.spectrum", frame.captureNanos, postNanos, framePosition);
+        }
+        synchronized (bpmLock) {
+            if (bpmCaptureNanos > 0) {
+                Tracer.span("latency.bpm", bpmCaptureNanos, postNanos, bpmPosition);
+                bpmCaptureNanos = -1;
+            }
+        }
+    }
 
-        double ky = height / 64.0;
-        double prevAmp = 0;
-        int lastx = -1;
-        int baseY = height;
+    private void draw(Canvas canvas, SpectrumSlot.Frame frame)
+    {
+        float ky = height / 64.0f * SPECTRUM_GAIN;
 
         // Clear with black
         canvas.drawRGB(0, 0, 0);
         Paint paint = new Paint();
 
-        // Draw the lines
-        for (int k = freq.minK, t = k * 2; k < freq.maxK; k++) {
-            double amp = Math.hypot(data[t++], data[t++]);
-            prevAmp = Math.max(prevAmp, amp);
-            int x = freq.x[k];
-            if (lastx < x) {
-                lastx = x; // + 3; // Leave some space between the lines
-                int y = (int) (prevAmp * ky + 0.5);
-                prevAmp = 0;
-
-                FreqData.Color c = freq.color[k];
-                paint.setARGB(255, c.r, c.g, c.b);
-                canvas.drawLine(x, baseY, x, baseY - y, paint);
+        // Draw the lines, the spectrum of silence is empty
+        if (!frame.silent) {
+            if (spectrum.isNoteSpectrum()) {
+                drawNotes(canvas, paint, frame.magnitudes, ky);
+            } else {
+                drawFft(canvas, paint, frame.magnitudes, ky);
             }
         }
 
@@ -118,7 +205,7 @@ public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmD
                 int half = height / 2;
                 int size = freq.wx.length;
                 paint.setARGB(255, 255, 255, 255);
-                lastx = width;
+                int lastx = width;
                 int lasty = half, miny = half;
                 for (int i = 0; i < size; i++) {
                     int x = (int) Math.floor(freq.wx[i] * width + 0.5);
@@ -143,6 +230,40 @@ public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmD
         }
     }
 
+    private void drawFft(Canvas canvas, Paint paint, float[] magnitudes, float ky)
+    {
+        float prevAmp = 0;
+        int lastx = -1;
+        int baseY = height;
+        for (int k = freq.minK; k < freq.maxK; k++) {
+            prevAmp = Math.max(prevAmp, magnitudes[k - freq.minK]);
+            int x = freq.x[k];
+            if (lastx < x) {
+                lastx = x; // + 3; // Leave some space between the lines
+                int y = (int) (prevAmp * ky + 0.5f);
+                prevAmp = 0;
+
+                FreqData.Color c = freq.color[k];
+                paint.setARGB(255, c.r, c.g, c.b);
+                canvas.drawLine(x, baseY, x, baseY - y, paint);
+            }
+        }
+    }
+
+    private void drawNotes(Canvas canvas, Paint paint, float[] magnitudes, float ky)
+    {
+        int baseY = height;
+        paint.setStrokeWidth(freq.binWidth);
+        for (int i = 0; i < freq.binX.length; i++) {
+            int x = freq.binX[i];
+            int y = (int) (magnitudes[i] * ky + 0.5f);
+            FreqData.Color c = freq.binColor[i];
+            paint.setARGB(255, c.r, c.g, c.b);
+            canvas.drawLine(x, baseY, x, baseY - y, paint);
+        }
+        paint.setStrokeWidth(0);
+    }
+
     void setIsRunning(boolean running) {
         synchronized (runLock) {
             isRunning = running;
@@ -151,8 +272,14 @@ public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmD
 
     void setDataSource(CaptureThread captureThread) {
         synchronized (runLock) {
-            circularBuffer = captureThread.getBuffer(this);
-            fft = new FftData(WINDOW_SIZE, circularBuffer);
+            this.captureThread = captureThread;
+            SampleBuffer samples = captureThread.subscribe(this);
+            spectrum = new SpectrumStage(samples, captureThread.getSilenceGate(), freq,
+                    CaptureThread.SAMPLE_RATE, WINDOW_SIZE, NOTE_SPECTRUM);
+            if (SPECTRUM_THREAD) {
+                spectrumThread = new SpectrumThread(spectrum, samples, SPECTRUM_HOP);
+                spectrumThread.start();
+            }
         }
     }
 
@@ -166,11 +293,14 @@ public class RenderThread extends Thread implements SurfaceHolder.Callback, BpmD
     }
 
     @Override
-    public void onProcess(float[] yAxis, float bpm) {
+    public void onProcess(float[] yAxis, float bpm, long position, long captureNanos) {
         synchronized (bpmLock) {
             // Log.i(TAG, "Update BPM");
             System.arraycopy(yAxis, 0, freq.wy, 0, yAxis.length);
             freq.bpm = bpm;
+            bpmPosition = position;
+            bpmCaptureNanos = captureNanos;
         }
+        redraw = true;
     }
 }
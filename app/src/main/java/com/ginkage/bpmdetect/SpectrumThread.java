@@ -0,0 +1,71 @@
+package com.ginkage.bpmdetect;
+
+import android.os.Process;
+import android.util.Log;
+
+public class SpectrumThread extends Thread {
+    private static final String TAG = "SpectrumThread";
+
+    private static final long WAIT_TIMEOUT_MS = 100;
+
+    private boolean isRunning = true;
+    private final Object runLock = new Object();
+    private final SpectrumStage stage;
+    private final SampleBuffer samples;
+    private final int hop;
+
+    /**
+     * @param samples The buffer the stage reads from.
+     * @param hop Number of new samples between two spectra, best a multiple of the capture block
+     *     so that every computation starts right after a write.
+     */
+    SpectrumThread(SpectrumStage stage, SampleBuffer samples, int hop) {
+        super(TAG);
+        this.stage = stage;
+        this.samples = samples;
+        this.hop = hop;
+    }
+
+    @Override
+    public void run() {
+        // Below the rendering, which never waits for it, but ahead of the BPM analysis
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+
+        long next = samples.getLatest() + hop;
+        while (isRunning) {
+            try {
+                if (!samples.awaitWritten(next, WAIT_TIMEOUT_MS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for samples", e);
+                continue;
+            }
+
+            synchronized (runLock) {
+                if (isRunning) {
+                    stage.process();
+                }
+            }
+            next = samples.getLatest() + hop;
+        }
+
+        Log.i(TAG, stage.toString());
+    }
+
+    void shutdown() {
+        synchronized (runLock) {
+            isRunning = false;
+        }
+
+        boolean retry = true;
+        while (retry) {
+            try {
+                join();
+                retry = false;
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Exception while stopping spectrum thread", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+#include <jni.h>
+#include "tempo_engine.h"
+#include "thread_affinity.h"
+
+#define JNI_METHOD(return_type, method_name) \
+  JNIEXPORT return_type JNICALL              \
+      Java_com_ginkage_bpmdetect_BpmDetect_##method_name
+
+namespace {
+
+    inline jlong jptr(TempoEngine *native_app) {
+        return reinterpret_cast<intptr_t>(native_app);
+    }
+
+    inline TempoEngine *native(jlong ptr) {
+        return reinterpret_cast<TempoEngine *>(ptr);
+    }
+
+    class JNIThreadCallbacks {
+    public:
+        JNIThreadCallbacks(JNIEnv *env, jobject obj, int n) {
+            env_ = env;
+            size_ = n;
+            obj_ = env->NewGlobalRef(obj);
+            dst_wx_ = reinterpret_cast<jfloatArray>(env->NewGlobalRef(env->NewFloatArray(n)));
+            dst_wy_ = reinterpret_cast<jfloatArray>(env->NewGlobalRef(env->NewFloatArray(n)));
+
+            jclass clazz = env->FindClass("com/ginkage/bpmdetect/BpmDetect");
+            method_on_create_ = env->GetMethodID(clazz, "onCreate", "([F)V");
+            method_on_process_ = env->GetMethodID(clazz, "onProcess", "([FFFFJJ)V");
+            method_on_bands_ = env->GetMethodID(clazz, "onBands", "([F[F[F)V");
+        }
+
+        void onCreate(float *wx) {
+            env_->SetFloatArrayRegion(dst_wx_, 0, size_, reinterpret_cast<const jfloat *>(wx));
+            env_->CallVoidMethod(obj_, method_on_create_, dst_wx_);
+        }
+
+        void onProcess(FreqData *data) {
+            env_->SetFloatArrayRegion(
+                dst_wy_, 0, size_, reinterpret_cast<const jfloat *>(data->wy.data()));
+            env_->CallVoidMethod(obj_, method_on_process_, dst_wy_, data->bpm, data->windowBpm,
+                                 data->prominence, static_cast<jlong>(data->fingerprint),
+                                 static_cast<jlong>(data->position));
+        }
+
+        void onBands(FreqData *data) {
+            if (dst_env_ == nullptr) {
+                dst_env_ = newArray(data->bandEnvelopes.size());
+                dst_corr_ = newArray(data->bandCorr.size());
+                dst_weights_ = newArray(data->bandWeights.size());
+            }
+            copy(dst_env_, data->bandEnvelopes);
+            copy(dst_corr_, data->bandCorr);
+            copy(dst_weights_, data->bandWeights);
+            env_->CallVoidMethod(obj_, method_on_bands_, dst_env_, dst_corr_, dst_weights_);
+        }
+
+        void onDestroy() {
+            if (dst_env_ != nullptr) {
+                env_->DeleteGlobalRef(dst_env_);
+                env_->DeleteGlobalRef(dst_corr_);
+                env_->DeleteGlobalRef(dst_weights_);
+            }
+            env_->DeleteGlobalRef(dst_wx_);
+            env_->DeleteGlobalRef(dst_wy_);
+            env_->DeleteGlobalRef(obj_);
+        }
+
+    private:
+        jfloatArray newArray(int n) {
+            jfloatArray local = env_->NewFloatArray(n);
+            auto global = reinterpret_cast<jfloatArray>(env_->NewGlobalRef(local));
+            env_->DeleteLocalRef(local);
+            return global;
+        }
+
+        void copy(jfloatArray dst, const std::vector<float> &src) {
+            env_->SetFloatArrayRegion(dst, 0, src.size(), reinterpret_cast<const jfloat *>(src.data()));
+        }
+
+        int size_;
+        JNIEnv *env_ = nullptr;
+        jfloatArray dst_wx_;
+        jfloatArray dst_wy_;
+        jmethodID method_on_create_;
+        jmethodID method_on_process_;
+        jmethodID method_on_bands_;
+        jfloatArray dst_env_ = nullptr;
+        jfloatArray dst_corr_ = nullptr;
+        jfloatArray dst_weights_ = nullptr;
+        jobject obj_;
+    };
+
+}  // anonymous namespace
+
+extern "C" {
+
+JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
+    return JNI_VERSION_1_6;
+}
+
+JNI_METHOD(jlong, nativeInit)
+(JNIEnv *env, jobject obj, jint engine, jint sample_rate, jint window_size) {
+    TempoEngine *detector = TempoEngine::create(engine, sample_rate, window_size);
+    if (detector == nullptr) {
+        return 0;
+    }
+    FreqData *data = detector->getData();
+    auto *callbacks = new JNIThreadCallbacks(env, obj, data->wx.size());
+    data->callbacks = callbacks;
+    callbacks->onCreate(data->wx.data());
+    return jptr(detector);
+}
+
+JNI_METHOD(void, nativeProcess)
+(JNIEnv *env, jobject obj, jlong native_app, jfloatArray data, jint count, jlong position) {
+    TempoEngine *detector = native(native_app);
+    jfloat *elements = env->GetFloatArrayElements(data, nullptr);
+    FreqData *output = detector->process(elements, count, position);
+    env->ReleaseFloatArrayElements(data, elements, JNI_ABORT);
+    auto *callbacks = reinterpret_cast<JNIThreadCallbacks *>(output->callbacks);
+    callbacks->onProcess(output);
+    if (output->hasBands) {
+        callbacks->onBands(output);
+    }
+}
+
+JNI_METHOD(void, nativeProcessFixed)
+(JNIEnv *env, jobject obj, jlong native_app, jshortArray data, jint count, jlong position) {
+    TempoEngine *detector = native(native_app);
+    jshort *elements = env->GetShortArrayElements(data, nullptr);
+    FreqData *output =
+        detector->process(reinterpret_cast<const int16_t *>(elements), count, position);
+    env->ReleaseShortArrayElements(data, elements, JNI_ABORT);
+    auto *callbacks = reinterpret_cast<JNIThreadCallbacks *>(output->callbacks);
+    callbacks->onProcess(output);
+    if (output->hasBands) {
+        callbacks->onBands(output);
+    }
+}
+
+JNI_METHOD(void, nativeSetBandWeights)
+(JNIEnv *env, jobject obj, jlong native_app, jfloatArray weights) {
+    TempoEngine *detector = native(native_app);
+    jfloat *elements = env->GetFloatArrayElements(weights, nullptr);
+    detector->setBandWeights(elements, env->GetArrayLength(weights));
+    env->ReleaseFloatArrayElements(weights, elements, JNI_ABORT);
+}
+
+JNI_METHOD(void, nativeSetAdaptiveWeights)
+(JNIEnv *env, jobject obj, jlong native_app, jboolean enabled) {
+    native(native_app)->setAdaptiveWeights(enabled);
+}
+
+JNI_METHOD(void, nativeSetBandOutput)
+(JNIEnv *env, jobject obj, jlong native_app, jboolean enabled) {
+    native(native_app)->setBandOutput(enabled);
+}
+
+JNI_METHOD(jboolean, nativeIsIncremental)
+(JNIEnv *env, jobject obj, jlong native_app) {
+    return native(native_app)->isIncremental() ? JNI_TRUE : JNI_FALSE;
+}
+
+JNI_METHOD(jlong, nativeGetMemoryBytes)
+(JNIEnv *env, jobject obj, jlong native_app) {
+    return static_cast<jlong>(native(native_app)->memoryBytes());
+}
+
+JNI_METHOD(jboolean, nativePinToEfficiencyCores)
+(JNIEnv *env, jclass clazz) {
+    return pinToEfficiencyCores() ? JNI_TRUE : JNI_FALSE;
+}
+
+JNI_METHOD(void, nativeDestroy)
+(JNIEnv *env, jobject obj, jlong native_app) {
+    TempoEngine *detector = native(native_app);
+    FreqData *data = detector->getData();
+    auto *callbacks = reinterpret_cast<JNIThreadCallbacks *>(data->callbacks);
+    callbacks->onDestroy();
+    delete callbacks;
+    delete detector;
+}
+
+}  // extern "C"
@@ -0,0 +1,161 @@
+#include "detector_tables.h"
+#include "tempo_engine.h"
+
+#include <algorithm>
+#include <map>
+#include <utility>
+
+namespace {
+
+    // FFTW planning is not thread-safe, so the cache lock also serializes plan creation
+    std::mutex cacheLock;
+    std::map<std::pair<int, int>, std::shared_ptr<DetectorTables>> cache;
+
+    // Wavelet levels, the finest details are undersampled by 2^(levels - 1)
+    const int waveletLevels = 4;
+    const int waveletMaxPace = 1 << (waveletLevels - 1);
+
+    // Envelope samples per minute: the finest details are at half the sample rate, and
+    // they are undersampled by maxPace
+    float envelopeMinute(int rate)
+    {
+        return rate * 60.0f / (2 * waveletMaxPace);
+    }
+
+    // Longest lag: the period of the slowest tempo the window holds one and a half periods of
+    int computeMaxIndex(int rate, int size, float minute, int dCMinLength)
+    {
+        int index = minute / std::max(40.0f, rate * 90.0f / size);
+        return std::min(index, dCMinLength);
+    }
+
+}  // anonymous namespace
+
+DetectorScratch::DetectorScratch(int size, int levels, int corrSize, int dCMinLength)
+    : dCSum(dCMinLength)
+    , corr(fftwf_alloc_real(corrSize))
+    , out(fftwf_alloc_complex(corrSize / 2 + 1))
+    , size(size)
+    , levels(levels)
+    , corrSize(corrSize)
+{
+}
+
+DetectorScratch::~DetectorScratch()
+{
+    fftwf_free(corr);
+    fftwf_free(out);
+}
+
+size_t DetectorScratch::memoryBytes() const
+{
+    size_t bytes = (dCSum.size() + corrSize) * sizeof(float)
+        + fixedSum.size() * sizeof(int32_t)
+        + (corrSize / 2 + 1) * sizeof(fftwf_complex);
+    if (wavelet) {
+        bytes += wavelet->memoryBytes();
+    }
+    if (fixedWavelet) {
+        bytes += fixedWavelet->memoryBytes();
+    }
+    return bytes;
+}
+
+Wavelet& DetectorScratch::getWavelet()
+{
+    if (!wavelet) {
+        wavelet.reset(new Wavelet(size, levels));
+    }
+    return *wavelet;
+}
+
+FixedWavelet& DetectorScratch::getFixedWavelet()
+{
+    if (!fixedWavelet) {
+        fixedWavelet.reset(new FixedWavelet(size, levels));
+        fixedSum = std::vector<int32_t>(dCSum.size());
+    }
+    return *fixedWavelet;
+}
+
+DetectorTables::DetectorTables(int rate, int size)
+    : sampleRate(rate)
+    , windowSize(size)
+    , levels(waveletLevels)
+    , maxPace(waveletMaxPace)
+    , corrSize(size / maxPace)
+    , dCMinLength(corrSize / 2)
+    , minute(envelopeMinute(rate))
+    , minIndex(minute / 220.0f)
+    , maxIndex(computeMaxIndex(rate, size, minute, dCMinLength))
+    , wx(TempoEngine::bpmAxis(minIndex, maxIndex))
+{
+    // Plan on temporary arrays: FFTW_MEASURE overwrites them, and detectors bring their own
+    float* in = fftwf_alloc_real(corrSize);
+    fftwf_complex* out = fftwf_alloc_complex(corrSize / 2 + 1);
+    plan_forward = fftwf_plan_dft_r2c_1d(corrSize, in, out, FFTW_MEASURE);
+    plan_back = fftwf_plan_dft_c2r_1d(corrSize, out, in, FFTW_MEASURE);
+    fftwf_free(in);
+    fftwf_free(out);
+}
+
+DetectorTables::~DetectorTables()
+{
+    fftwf_destroy_plan(plan_forward);
+    fftwf_destroy_plan(plan_back);
+}
+
+size_t DetectorTables::memoryBytes() const
+{
+    return wx.size() * sizeof(float);
+}
+
+bool DetectorTables::supports(int rate, int size)
+{
+    // The wavelet transform wraps around with a mask, and the envelope kernels take
+    // four envelope samples at a time, a sixteenth of the window
+    if (size < 64 || (size & (size - 1)) != 0) {
+        return false;
+    }
+    // The window must hold some of the lags to search
+    float minute = envelopeMinute(rate);
+    int minIndex = minute / 220.0f;
+    return computeMaxIndex(rate, size, minute, size / waveletMaxPace / 2) > minIndex;
+}
+
+std::mutex& fftwPlanLock()
+{
+    return cacheLock;
+}
+
+std::shared_ptr<DetectorTables> DetectorTables::get(int rate, int size)
+{
+    std::lock_guard<std::mutex> lock(cacheLock);
+    std::shared_ptr<DetectorTables>& tables = cache[std::make_pair(rate, size)];
+    if (!tables) {
+        tables = std::make_shared<DetectorTables>(rate, size);
+    }
+    return tables;
+}
+
+std::unique_ptr<DetectorScratch> DetectorTables::acquireScratch()
+{
+    {
+        std::lock_guard<std::mutex> lock(poolLock);
+        if (!pool.empty()) {
+            std::unique_ptr<DetectorScratch> scratch = std::move(pool.back());
+            pool.pop_back();
+            return scratch;
+        }
+    }
+    return std::unique_ptr<DetectorScratch>(
+        new DetectorScratch(windowSize, levels, corrSize, dCMinLength));
+}
+
+void DetectorTables::releaseScratch(std::unique_ptr<DetectorScratch> scratch)
+{
+    std::lock_guard<std::mutex> lock(poolLock);
+    if (pool.size() < maxPooled) {
+        pool.push_back(std::move(scratch));
+    }
+}
@@ -0,0 +1,91 @@
+#pragma once
+
+#include "wavelet.h"
+
+#include <fftw-3.3.10/api/fftw3.h>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+// FFTW planning is not thread-safe: every plan must be created and destroyed under this lock
+std::mutex& fftwPlanLock();
+
+/**
+ * Mutable per-detector buffers: the wavelet decomposition levels, the envelope
+ * accumulators and the autocorrelation input/output arrays.
+ * Instances are recycled through <code>DetectorTables</code> instead of being freed.
+ **/
+struct DetectorScratch {
+    DetectorScratch(int size, int levels, int corrSize, int dCMinLength);
+    ~DetectorScratch();
+
+    size_t memoryBytes() const;
+
+    // Only the wavelet for the sample format in use is allocated, on first use
+    Wavelet& getWavelet();
+    FixedWavelet& getFixedWavelet();
+
+    std::vector<float> dCSum;
+    // Envelope accumulator of the fixed-point path, allocated with its wavelet
+    std::vector<int32_t> fixedSum;
+
+    // Allocated with fftwf_alloc_* so that the shared plans can run on them
+    float* corr;
+    fftwf_complex* out;
+
+private:
+    int size;
+    int levels;
+    int corrSize;
+    std::unique_ptr<Wavelet> wavelet;
+    std::unique_ptr<FixedWavelet> fixedWavelet;
+};
+
+/**
+ * Read-only data that only depends on the sample rate and the window size:
+ * the BPM axis, the peak search range and the FFTW plans for autocorrelation.
+ * One instance per configuration is shared by all detectors, and the plans are
+ * executed on each detector's own arrays via the new-array execute functions.
+ **/
+class DetectorTables {
+public:
+    DetectorTables(int rate, int size);
+    ~DetectorTables();
+
+    // Returns the cached tables for the configuration, creating them on first use
+    static std::shared_ptr<DetectorTables> get(int rate, int size);
+
+    // Whether the window size can be analyzed: a power of two that holds the slowest tempo
+    static bool supports(int rate, int size);
+
+    // Takes a scratch set from the pool, or allocates a new one if the pool is empty
+    std::unique_ptr<DetectorScratch> acquireScratch();
+
+    // Returns a scratch set to the pool for the next detector with the same configuration
+    void releaseScratch(std::unique_ptr<DetectorScratch> scratch);
+
+    const int sampleRate;
+    const int windowSize;
+    const int levels;
+    const int maxPace;
+    const int corrSize;
+    const int dCMinLength;
+    const float minute;
+    const int minIndex;
+    const int maxIndex;
+
+    // Bytes of shared data, excluding the FFTW plans which are opaque
+    size_t memoryBytes() const;
+
+    // Normalized BPM axis, one value per lag in [minIndex, maxIndex)
+    std::vector<float> wx;
+
+    fftwf_plan plan_forward;
+    fftwf_plan plan_back;
+
+private:
+    static const size_t maxPooled = 2;
+
+    std::mutex poolLock;
+    std::vector<std::unique_ptr<DetectorScratch>> pool;
+};
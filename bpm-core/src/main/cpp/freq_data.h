@@ -0,0 +1,23 @@
+#pragma once
+
+#include <cstdint>
+#include <vector>
+
+struct FreqData {
+    float bpm;
+    float windowBpm; // This window's estimate, before the median
+    float prominence; // Height of the peak over the mean of the normalized autocorrelation
+    uint64_t fingerprint;
+    int64_t position; // Stream position just after the window
+    std::vector<float> wx;
+    std::vector<float> wy;
+
+    // Per-band output, filled only when enabled with setBandOutput()
+    bool hasBands;
+    int bands;
+    std::vector<float> bandEnvelopes; // bands * envelope length, mean removed
+    std::vector<float> bandCorr; // bands * wy.size(), normalized by zero lag
+    std::vector<float> bandWeights;
+
+    void *callbacks;
+};
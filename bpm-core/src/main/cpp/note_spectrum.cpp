@@ -0,0 +1,141 @@
+#include <algorithm>
+#include <cmath>
+
+#include "note_spectrum.h"
+
+namespace {
+
+    /**
+     * Half-band low pass for the decimation: 15 taps with a Kaiser window (beta 7),
+     * where every other tap is zero but the middle one, and unity gain at DC.
+     * The bins of the next octave lie between 1/32 and 1/16 of this rate, where it
+     * is flat to 0.002 dB. What would alias onto them lies between 7/16 and 15/32,
+     * where it is at least 79 dB down.
+     **/
+    const float halfBandCenter = 0.4999564505f;
+    const float halfBand[4] = { 0.2978282775f, -0.0569353950f, 0.0093985869f, -0.0002696947f };
+
+    // Frequency 440 is a note number 57 = 12 * 4 + 9
+    double noteFrequency(double note) {
+        return 440.0 * std::pow(2.0, (note - 57.0) / 12.0);
+    }
+
+}  // anonymous namespace
+
+NoteSpectrum::NoteSpectrum(int rate, int minNote, int maxNote, int binsPerNote)
+    : historySize(1)
+{
+    const int count = (maxNote - minNote) * binsPerNote + 1;
+    // Bandwidth of a bin, so that neighbouring bins overlap at half their main lobe
+    const double q = 1.0 / (std::pow(2.0, 1.0 / (12.0 * binsPerNote)) - 1.0);
+
+    binData.resize(count);
+    size_t offset = 0;
+    int maxOctave = 0;
+    for (int i = 0; i < count; ++i) {
+        double frequency = noteFrequency(minNote + i / static_cast<double>(binsPerNote));
+        // Highest octave where the bin is still at most 1/8 of the sample rate
+        int octave = std::max(0, static_cast<int>(std::floor(std::log2(rate / (8.0 * frequency)))));
+        double octaveRate = std::ldexp(static_cast<double>(rate), -octave);
+
+        Bin& bin = binData[i];
+        bin.octave = octave;
+        bin.length = static_cast<int>(std::ceil(q * octaveRate / frequency));
+        bin.kernel = offset;
+        offset += 2 * bin.length;
+        maxOctave = std::max(maxOctave, octave);
+        while (historySize < static_cast<unsigned int>(bin.length)) {
+            historySize <<= 1u;
+        }
+    }
+
+    // Hann-windowed complex sinusoids, scaled so that a sine of amplitude 1 gives 1
+    kernels.resize(offset);
+    for (int i = 0; i < count; ++i) {
+        const Bin& bin = binData[i];
+        double frequency = noteFrequency(minNote + i / static_cast<double>(binsPerNote));
+        double step = 2 * M_PI * frequency / std::ldexp(static_cast<double>(rate), -bin.octave);
+
+        double sum = 0;
+        for (int n = 0; n < bin.length; ++n) {
+            sum += 0.5 - 0.5 * std::cos(2 * M_PI * (n + 0.5) / bin.length);
+        }
+        float* kernel = &kernels[bin.kernel];
+        for (int n = 0; n < bin.length; ++n) {
+            double window = (0.5 - 0.5 * std::cos(2 * M_PI * (n + 0.5) / bin.length)) * 2 / sum;
+            kernel[2 * n] = static_cast<float>(window * std::cos(step * n));
+            kernel[2 * n + 1] = static_cast<float>(-window * std::sin(step * n));
+        }
+    }
+
+    octaves.resize(maxOctave + 1);
+    for (Octave& octave : octaves) {
+        octave.history.resize(2 * historySize);
+    }
+}
+
+void NoteSpectrum::process(const float* stereo, int samples)
+{
+    for (int i = 0; i + 1 < samples; i += 2) {
+        push(0, (stereo[i] + stereo[i + 1]) * 0.5f);
+    }
+}
+
+/**
+ * Appends a sample to the octave history, and every second sample feeds the
+ * low passed signal to the next octave.
+ * The history is stored twice in a row, so that the latest samples are always
+ * contiguous and the kernels can run without wrapping around.
+ **/
+void NoteSpectrum::push(int index, float value)
+{
+    Octave& octave = octaves[index];
+    octave.history[octave.pos] = value;
+    octave.history[octave.pos + historySize] = value;
+    octave.pos = (octave.pos + 1) & (historySize - 1);
+
+    if (index + 1 == static_cast<int>(octaves.size())) {
+        return;
+    }
+
+    float* taps = octave.taps;
+    std::copy(taps + 1, taps + 15, taps);
+    taps[14] = value;
+    octave.odd = !octave.odd;
+    if (!octave.odd) {
+        // Symmetric around the middle tap, and only the odd distances from it count
+        float e = halfBandCenter * taps[7];
+        for (int k = 0; k < 4; ++k) {
+            e += halfBand[k] * (taps[6 - 2 * k] + taps[8 + 2 * k]);
+        }
+        push(index + 1, e);
+    }
+}
+
+void NoteSpectrum::compute(float* magnitudes) const
+{
+    for (size_t i = 0; i < binData.size(); ++i) {
+        const Bin& bin = binData[i];
+        const Octave& octave = octaves[bin.octave];
+        const float* x = &octave.history[octave.pos + historySize - bin.length];
+        const float* kernel = &kernels[bin.kernel];
+
+        float re = 0, im = 0;
+        for (int n = 0; n < bin.length; ++n) {
+            re += x[n] * kernel[2 * n];
+            im += x[n] * kernel[2 * n + 1];
+        }
+        magnitudes[i] = std::sqrt(re * re + im * im);
+    }
+}
+
+int NoteSpectrum::bins() const
+{
+    return binData.size();
+}
+
+size_t NoteSpectrum::memoryBytes() const
+{
+    return (kernels.size() + octaves.size() * 2 * historySize) * sizeof(float)
+        + binData.size() * sizeof(Bin);
+}
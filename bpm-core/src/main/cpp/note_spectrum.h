@@ -0,0 +1,62 @@
+#pragma once
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+/**
+ * Class <code>NoteSpectrum</code> computes the magnitude of the audio at every
+ * note (or fraction of a note) of a range, i.e. a constant-Q spectrum.
+ *
+ * Instead of an FFT that is mostly thrown away, the input is split into octaves
+ * by a cascade of half-band low pass filters and decimators. Every bin is then computed as a windowed complex
+ * sinusoid at the note frequency, on the octave where it is between 1/16 and 1/8
+ * of the sample rate. The window length is the same number of periods for every
+ * bin, so the low notes get the same relative resolution as the high ones, and
+ * the kernels of all bins stay short.
+ *
+ * The decimation runs on every new block of samples, and the bins are computed
+ * from the latest samples of every octave on request.
+ **/
+class NoteSpectrum {
+public:
+    /**
+     * @param rate Sample rate of the input
+     * @param minNote Lowest note, where 57 is A4 (440 Hz)
+     * @param maxNote Highest note, included
+     * @param binsPerNote Number of bins per semitone
+     **/
+    NoteSpectrum(int rate, int minNote, int maxNote, int binsPerNote);
+
+    // Adds interleaved stereo samples, down-mixed to mono
+    void process(const float* stereo, int samples);
+
+    // Writes one magnitude per bin, where a full scale sine at the bin frequency gives 1
+    void compute(float* magnitudes) const;
+
+    int bins() const;
+
+    // Bytes held by the kernels and the octave histories
+    size_t memoryBytes() const;
+
+private:
+    struct Bin {
+        int octave;
+        int length;
+        size_t kernel; // Offset of the interleaved complex kernel
+    };
+
+    struct Octave {
+        std::vector<float> history; // Every sample is stored twice, see push()
+        unsigned int pos = 0;
+        float taps[15] = {};
+        bool odd = false;
+    };
+
+    void push(int octave, float value);
+
+    unsigned int historySize;
+    std::vector<Bin> binData;
+    std::vector<float> kernels;
+    std::vector<Octave> octaves;
+};
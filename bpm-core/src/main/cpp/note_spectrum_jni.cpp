@@ -0,0 +1,62 @@
+#include <jni.h>
+#include "note_spectrum.h"
+
+#define JNI_METHOD(return_type, method_name) \
+  JNIEXPORT return_type JNICALL              \
+      Java_com_ginkage_bpmdetect_NoteSpectrum_##method_name
+
+namespace {
+
+    // The spectrum and the direct buffer it writes the magnitudes to
+    struct NativeSpectrum {
+        NativeSpectrum(int rate, int minNote, int maxNote, int binsPerNote, float *output)
+            : spectrum(rate, minNote, maxNote, binsPerNote)
+            , output(output) {}
+
+        NoteSpectrum spectrum;
+        float *output;
+    };
+
+    inline jlong jptr(NativeSpectrum *native_app) {
+        return reinterpret_cast<intptr_t>(native_app);
+    }
+
+    inline NativeSpectrum *native(jlong ptr) {
+        return reinterpret_cast<NativeSpectrum *>(ptr);
+    }
+
+}  // anonymous namespace
+
+extern "C" {
+
+JNI_METHOD(jlong, nativeInit)
+(JNIEnv *env, jobject obj, jint sample_rate, jint min_note, jint max_note, jint bins_per_note,
+ jobject output) {
+    auto *output_data = reinterpret_cast<float *>(env->GetDirectBufferAddress(output));
+    return jptr(new NativeSpectrum(sample_rate, min_note, max_note, bins_per_note, output_data));
+}
+
+JNI_METHOD(void, nativeProcess)
+(JNIEnv *env, jobject obj, jlong native_app, jfloatArray data, jint samples) {
+    jfloat *elements = env->GetFloatArrayElements(data, nullptr);
+    native(native_app)->spectrum.process(elements, samples);
+    env->ReleaseFloatArrayElements(data, elements, JNI_ABORT);
+}
+
+JNI_METHOD(void, nativeCompute)
+(JNIEnv *env, jobject obj, jlong native_app) {
+    NativeSpectrum *spectrum = native(native_app);
+    spectrum->spectrum.compute(spectrum->output);
+}
+
+JNI_METHOD(jlong, nativeGetMemoryBytes)
+(JNIEnv *env, jobject obj, jlong native_app) {
+    return static_cast<jlong>(native(native_app)->spectrum.memoryBytes());
+}
+
+JNI_METHOD(void, nativeDestroy)
+(JNIEnv *env, jobject obj, jlong native_app) {
+    delete native(native_app);
+}
+
+}  // extern "C"
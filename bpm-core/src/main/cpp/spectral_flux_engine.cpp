@@ -0,0 +1,333 @@
+#include "spectral_flux_engine.h"
+#include "detector_tables.h"
+#include "trace.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstdint>
+#include <cstring>
+#include <mutex>
+#include <numeric>
+
+namespace {
+
+    // Log compression of the magnitudes, so that quiet onsets count as well as loud ones
+    const float compression = 100.0f;
+
+    /**
+     * Natural log of 1 + x for x >= 0, within 1e-4: the exponent of the float plus
+     * a polynomial of its mantissa. Every bin of every frame is compressed, and
+     * std::log1p took over half of the engine's time for a precision the onsets
+     * do not need.
+     **/
+    inline float compress(float x)
+    {
+        float y = 1.0f + x;
+        uint32_t bits;
+        std::memcpy(&bits, &y, sizeof(bits));
+        int exponent = static_cast<int>(bits >> 23) - 127;
+        bits = (bits & 0x007fffffu) | 0x3f800000u;
+        float mantissa;
+        std::memcpy(&mantissa, &bits, sizeof(mantissa));
+
+        // log2 of the mantissa in [1, 2), least maximum error fit
+        float t = mantissa - 1.0f;
+        float log2 = t * (1.4390166f + t * (-0.67996181f + t * (0.32563604f + t * -0.08479439f)));
+        return (exponent + log2) * 0.69314718f;
+    }
+
+    // The slowest tempo must repeat this many times within the analyzed onsets
+    const int minBeats = 3;
+
+    // First bin of every fingerprint band, two octaves each, and the end of the last one
+    const int bandStart[TempoEngine::fingerprintBands + 1] = { 1, 4, 16, 64, 256, 513 };
+
+    // The band levels follow the frames over about a second and a half
+    const float levelSmoothing = 1.0f / 256;
+
+}  // anonymous namespace
+
+SpectralFluxEngine::SpectralFluxEngine(int rate)
+    : sampleRate(rate)
+    , minute(rate * 60.0f / hopSize)
+    , minIndex(minute / 220.0f)
+    , maxIndex(minute / 60.0f)
+    , window(frameSize)
+    , input(frameSize)
+    , inputFill(0)
+    , streamPosition(-1)
+    , magnitudes(frameSize / 2 + 1)
+    , bandLevels(fingerprintBands)
+    , haveMagnitudes(true)
+    , onsets(2 * historySize)
+    , onsetPos(0)
+    , onsetCount(0)
+    , onsetSum(0)
+    , lagSums(maxIndex + 1)
+    , corr(maxIndex + 1)
+    , slidingMedian(std::chrono::seconds(5))
+{
+    frame = fftwf_alloc_real(frameSize);
+    spectrum = fftwf_alloc_complex(frameSize / 2 + 1);
+    {
+        std::lock_guard<std::mutex> lock(fftwPlanLock());
+        plan = fftwf_plan_dft_r2c_1d(frameSize, frame, spectrum, FFTW_MEASURE);
+    }
+
+    for (int i = 0; i < frameSize; ++i) {
+        window[i] = static_cast<float>(0.5 - 0.5 * std::cos(2 * M_PI * (i + 0.5) / frameSize));
+    }
+
+    freq.bpm = 0;
+    freq.windowBpm = 0;
+    freq.prominence = 0;
+    freq.fingerprint = 0;
+    freq.position = 0;
+    freq.wx = bpmAxis(minIndex, maxIndex);
+    freq.wy = std::vector<float>(maxIndex - minIndex);
+    freq.hasBands = false;
+    freq.bands = 0;
+}
+
+SpectralFluxEngine::~SpectralFluxEngine()
+{
+    {
+        std::lock_guard<std::mutex> lock(fftwPlanLock());
+        fftwf_destroy_plan(plan);
+    }
+    fftwf_free(frame);
+    fftwf_free(spectrum);
+}
+
+FreqData *SpectralFluxEngine::process(const float* data, int count, int64_t position)
+{
+    {
+        trace::Scope scope("bpm.onsets", position);
+        begin(count, position);
+        for (int i = 0; i < count; ++i) {
+            push(data[i]);
+        }
+    }
+    return finish(position);
+}
+
+FreqData *SpectralFluxEngine::process(const int16_t* data, int count, int64_t position)
+{
+    {
+        trace::Scope scope("bpm.onsets", position);
+        begin(count, position);
+        const float scale = 1.0f / 32768;
+        for (int i = 0; i < count; ++i) {
+            push(data[i] * scale);
+        }
+    }
+    return finish(position);
+}
+
+/**
+ * Checks that the new samples follow the previous ones, and skips the gap if not.
+ **/
+void SpectralFluxEngine::begin(int count, int64_t position)
+{
+    int64_t start = position - count;
+    if (streamPosition >= 0 && start > streamPosition) {
+        skip(start - streamPosition);
+    }
+    streamPosition = position;
+}
+
+/**
+ * Keeps the onsets on their time line across missing samples. Their onsets are
+ * unknown, so every hop the gap covers gets the mean onset, which does not
+ * correlate with anything. The frame in progress is dropped, and the first frame
+ * after the gap has no previous one to compare to, so it gets the mean as well.
+ **/
+void SpectralFluxEngine::skip(int64_t samples)
+{
+    if (onsetCount > 0) {
+        // End of the frame of the last onset, and of the first frame after the gap
+        int64_t lastEnd = streamPosition - inputFill + frameSize - hopSize;
+        int64_t nextEnd = streamPosition + samples + frameSize;
+        int64_t hops = (nextEnd - lastEnd + hopSize / 2) / hopSize - 1;
+
+        float mean = meanOnset();
+        for (int64_t i = 0; i < std::min<int64_t>(hops, historySize); ++i) {
+            appendOnset(mean);
+        }
+    }
+    inputFill = 0;
+    haveMagnitudes = false;
+}
+
+void SpectralFluxEngine::push(float value)
+{
+    input[inputFill++] = value;
+    if (inputFill == frameSize) {
+        analyzeFrame();
+        std::copy(input.begin() + hopSize, input.end(), input.begin());
+        inputFill = frameSize - hopSize;
+    }
+}
+
+/**
+ * Appends the spectral flux of the latest frame to the onsets.
+ * The onsets are stored twice in a row, so that the latest ones are always
+ * contiguous, as in <code>NoteSpectrum</code>.
+ **/
+void SpectralFluxEngine::analyzeFrame()
+{
+    for (int i = 0; i < frameSize; ++i) {
+        frame[i] = input[i] * window[i];
+    }
+    fftwf_execute_dft_r2c(plan, frame, spectrum);
+
+    // A full scale sine gives a magnitude of about 1 before the compression
+    const float scale = compression * 4.0f / frameSize;
+    float flux = 0;
+    for (int band = 0; band < fingerprintBands; ++band) {
+        float level = 0;
+        float bandFlux = 0;
+        for (int k = bandStart[band]; k < bandStart[band + 1]; ++k) {
+            float re = spectrum[k][0], im = spectrum[k][1];
+            float linear = std::sqrt(re * re + im * im);
+            float magnitude = compress(scale * linear);
+            bandFlux += std::max(0.0f, magnitude - magnitudes[k]);
+            magnitudes[k] = magnitude;
+            level += linear;
+        }
+        // The noise of a band's bins adds up with the square root of their count, scale it out
+        // so that the few bins of the kick are not drowned by the hundreds above them
+        int width = bandStart[band + 1] - bandStart[band];
+        flux += bandFlux / std::sqrt(static_cast<float>(width));
+        level /= width;
+        bandLevels[band] += (level - bandLevels[band]) * levelSmoothing;
+    }
+
+    if (!haveMagnitudes) {
+        // First frame after a gap, see skip()
+        flux = meanOnset();
+        haveMagnitudes = true;
+    }
+    appendOnset(flux);
+}
+
+float SpectralFluxEngine::meanOnset() const
+{
+    int n = static_cast<int>(std::min<int64_t>(onsetCount, historySize));
+    const float* x = &onsets[onsetPos + historySize - n];
+    return n > 0 ? std::accumulate(x, x + n, 0.0f) / n : 0;
+}
+
+/**
+ * Appends an onset, and updates the running sums: the oldest onset leaves them
+ * once the ring is full, and the new one brings its products with the ones
+ * before it. That is a few hundred operations per onset, rather than the whole
+ * autocorrelation per call.
+ **/
+void SpectralFluxEngine::appendOnset(float value)
+{
+    int older = static_cast<int>(std::min<int64_t>(onsetCount, historySize - 1));
+    if (onsetCount >= static_cast<int64_t>(historySize)) {
+        // The oldest onset and the ones after it, all in the window
+        const float* x = &onsets[onsetPos];
+        for (int lag = minIndex - 1; lag <= maxIndex; ++lag) {
+            lagSums[lag] -= static_cast<double>(x[0]) * x[lag];
+        }
+        onsetSum -= x[0];
+    }
+
+    onsets[onsetPos] = value;
+    onsets[onsetPos + historySize] = value;
+
+    // The new onset and the ones before it
+    const float* y = &onsets[onsetPos + historySize];
+    for (int lag = minIndex - 1; lag <= std::min(maxIndex, older); ++lag) {
+        lagSums[lag] += static_cast<double>(value) * y[-lag];
+    }
+    onsetSum += value;
+
+    onsetPos = (onsetPos + 1) & (historySize - 1);
+    ++onsetCount;
+    if (onsetPos == 0) {
+        resyncSums();
+    }
+}
+
+void SpectralFluxEngine::resyncSums()
+{
+    int n = static_cast<int>(std::min<int64_t>(onsetCount, historySize));
+    const float* x = &onsets[onsetPos + historySize - n];
+    onsetSum = std::accumulate(x, x + n, 0.0);
+    for (int lag = minIndex - 1; lag <= maxIndex; ++lag) {
+        double acc = 0;
+        for (int i = 0; i + lag < n; ++i) {
+            acc += static_cast<double>(x[i]) * x[i + lag];
+        }
+        lagSums[lag] = acc;
+    }
+}
+
+FreqData *SpectralFluxEngine::finish(int64_t position)
+{
+    freq.position = position;
+
+    // Wait until the slowest tempo can be measured
+    int n = static_cast<int>(std::min<int64_t>(onsetCount, historySize));
+    if (n < minBeats * maxIndex) {
+        freq.windowBpm = freq.bpm;
+        freq.prominence = 0;
+        return &freq;
+    }
+
+    {
+        // Centre the running sums: the sum of (x[i] - mean) * (x[i + lag] - mean) over
+        // i + lag < n only needs the sums of the first and of the last lag onsets
+        trace::Scope scope("bpm.autocorrelation", position);
+        const float* x = &onsets[onsetPos + historySize - n];
+        double mean = onsetSum / n;
+        double head = 0; // Sum of the first lag onsets
+        double tail = 0; // Sum of the last lag onsets
+        for (int lag = 0; lag <= maxIndex; ++lag) {
+            if (lag >= minIndex - 1) {
+                double overlap = n - lag;
+                double products = (2 * onsetSum - head - tail) * mean;
+                corr[lag] = static_cast<float>(lagSums[lag] - products + overlap * mean * mean);
+            }
+            head += x[lag];
+            tail += x[n - 1 - lag];
+        }
+    }
+
+    trace::Scope scope("bpm.peak", position);
+    int location = detectPeak(corr, minIndex, maxIndex, freq);
+
+    // Nothing correlates, e.g. in digital silence: keep the last tempo
+    if (location <= 0) {
+        freq.windowBpm = freq.bpm;
+        freq.prominence = 0;
+        return &freq;
+    }
+
+    freq.fingerprint = fingerprint(freq.wy, bandLevels);
+    float lag = refinePeak(corr, checkOctave(corr, location, minIndex, n));
+    freq.windowBpm = minute / lag;
+
+    std::chrono::duration<double> streamTime(position / static_cast<double>(sampleRate));
+    Timestamp timestamp(std::chrono::duration_cast<Duration>(streamTime));
+    freq.bpm = slidingMedian.offer(std::make_pair(freq.windowBpm, timestamp));
+
+    return &freq;
+}
+
+FreqData *SpectralFluxEngine::getData()
+{
+    return &freq;
+}
+
+size_t SpectralFluxEngine::memoryBytes() const
+{
+    size_t floats = window.size() + input.size() + magnitudes.size() + bandLevels.size()
+        + onsets.size() + corr.size() + freq.wx.size() + freq.wy.size();
+    return (floats + frameSize) * sizeof(float) + (frameSize / 2 + 1) * sizeof(fftwf_complex)
+        + lagSums.size() * sizeof(double);
+}
@@ -0,0 +1,89 @@
+#pragma once
+
+#include "sliding_median.h"
+#include "tempo_engine.h"
+
+#include <fftw-3.3.10/api/fftw3.h>
+#include <chrono>
+#include <vector>
+
+/**
+ * Class <code>SpectralFluxEngine</code> detects the tempo from the onsets in the
+ * audio, as a cheaper alternative to the wavelet envelope over a long window.
+ *
+ * The input, the signed mono mix of the channels, is cut into short overlapping
+ * frames as it arrives. The onset strength of a frame is its spectral flux: the sum
+ * of the increases of the log-compressed magnitudes since the previous frame, each
+ * band of bins scaled by the square root of its width. The tempo is the lag of the highest peak
+ * of the autocorrelation of the last few seconds of onsets, checked for octave
+ * errors, refined between lags and smoothed by the same sliding median as the
+ * wavelet engine.
+ *
+ * Every call only processes the new samples, and the lagged products of the
+ * autocorrelation are kept up to date as the onsets come and go, so a call
+ * only centres them. Most of the cost follows the stream instead of the
+ * analysis rate. Samples that never arrive leave a gap on the onset time line
+ * rather than being spliced out, see skip().
+ **/
+class SpectralFluxEngine : public TempoEngine {
+public:
+    explicit SpectralFluxEngine(int rate);
+    ~SpectralFluxEngine() override;
+
+    FreqData *process(const float* data, int count, int64_t position) override;
+    FreqData *process(const int16_t* data, int count, int64_t position) override;
+    bool isIncremental() const override { return true; }
+
+    FreqData *getData() override;
+
+    size_t memoryBytes() const override;
+
+private:
+    void begin(int count, int64_t position);
+    void skip(int64_t samples);
+    void push(float value);
+    void analyzeFrame();
+    void appendOnset(float value);
+    void resyncSums();
+    float meanOnset() const;
+    FreqData *finish(int64_t position);
+
+    static const int frameSize = 1024;
+    static const int hopSize = 256;
+    // Onsets kept for the autocorrelation, about 5.5 s at 48 kHz
+    static const unsigned int historySize = 1024;
+
+    int sampleRate;
+    float minute;
+    int minIndex;
+    int maxIndex;
+
+    // Allocated with fftwf_alloc_* for the plan
+    float* frame;
+    fftwf_complex* spectrum;
+    fftwf_plan plan;
+
+    std::vector<float> window;
+    std::vector<float> input; // The latest frame of samples, shifted by a hop when full
+    int inputFill;
+    int64_t streamPosition; // Just after the last sample pushed, -1 before the first one
+    std::vector<float> magnitudes; // Log magnitudes of the previous frame
+    std::vector<float> bandLevels; // Smoothed magnitude per band, for the fingerprint
+    bool haveMagnitudes; // False after a gap, when the previous frame is not the one before
+
+    std::vector<float> onsets; // Every onset is stored twice, see analyzeFrame()
+    unsigned int onsetPos;
+    int64_t onsetCount;
+    // Running sums over the onsets kept: of the onsets, and of their products at every
+    // lag in [minIndex - 1, maxIndex]. Recomputed whenever the ring wraps, so that the
+    // rounding errors do not pile up.
+    double onsetSum;
+    std::vector<double> lagSums;
+    std::vector<float> corr;
+
+    using Timestamp = std::chrono::steady_clock::time_point;
+    using Duration = std::chrono::steady_clock::duration;
+    SlidingMedian<float, Timestamp, Duration> slidingMedian;
+
+    FreqData freq;
+};
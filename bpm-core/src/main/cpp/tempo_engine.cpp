@@ -0,0 +1,174 @@
+#include "tempo_engine.h"
+#include "spectral_flux_engine.h"
+#include "wavelet_bpm_detector.h"
+
+#include <algorithm>
+#include <cfloat>
+#include <cmath>
+
+constexpr float TempoEngine::octaveRatio;
+
+TempoEngine *TempoEngine::create(int type, int rate, int windowSize)
+{
+    switch (type) {
+    case WAVELET:
+        if (!DetectorTables::supports(rate, windowSize)) {
+            return nullptr;
+        }
+        return new WaveletBPMDetector(rate, windowSize);
+    case SPECTRAL_FLUX:
+        return new SpectralFluxEngine(rate);
+    default:
+        return nullptr;
+    }
+}
+
+std::vector<float> TempoEngine::bpmAxis(int minIndex, int maxIndex)
+{
+    std::vector<float> wx(maxIndex - minIndex);
+    float nom = 1.0f / (1.0f / minIndex - 1.0f / maxIndex);
+    float start = nom / maxIndex;
+    for (int i = minIndex; i < maxIndex; ++i) {
+        wx[i - minIndex] = nom / i - start;
+    }
+    return wx;
+}
+
+/**
+ * Identifies the location of data with the maximum absolute
+ * value (either positive or negative). If multiple data
+ * have the same absolute value the last positive is taken.
+ * Also stores the normalized data and the peak prominence in the output.
+ * @param data the input array from which to identify the maximum
+ * @param minIndex, maxIndex the lag range to search
+ * @return the index of the maximum value in the array
+ **/
+int TempoEngine::detectPeak(const std::vector<float>& data, int minIndex, int maxIndex,
+                            FreqData& freq)
+{
+    float max = FLT_MIN, maxP = FLT_MIN;
+    for (int i = minIndex; i < maxIndex; ++i) {
+        max = std::max(max, std::fabs(data[i]));
+        maxP = std::max(maxP, data[i]);
+    }
+
+    float scale = 1.0f / max;
+    float sum = 0;
+    int k = -1;
+    for (int i = minIndex; i < maxIndex; ++i) {
+        freq.wy[i - minIndex] = data[i] * scale;
+        sum += freq.wy[i - minIndex];
+        if (data[i] == maxP && k < 0) {
+            k = i;
+        }
+    }
+
+    freq.prominence = maxP * scale - sum / (maxIndex - minIndex);
+
+    return k;
+}
+
+/**
+ * Octave check: a beat period also correlates at its multiples, and the plain
+ * autocorrelation favours short lags (fewer products overlap at long ones), so
+ * the strongest peak may still be twice the beat period. The peak around half
+ * the lag wins when its correlation per overlapping sample is close enough.
+ * @param location the peak found by <code>detectPeak</code>
+ * @param length number of samples that were autocorrelated
+ * @return the lag of the chosen peak
+ **/
+int TempoEngine::checkOctave(const std::vector<float>& data, int location, int minIndex,
+                             int length)
+{
+    // Highest lag within one step of the half, inside the BPM range
+    int half = -1;
+    for (int i = std::max(minIndex, location / 2 - 1); i <= location / 2 + 1; ++i) {
+        if (half < 0 || data[i] > data[half]) {
+            half = i;
+        }
+    }
+    if (half < minIndex) {
+        return location;
+    }
+
+    float halfScore = data[half] / (length - half);
+    float score = data[location] / (length - location);
+    return halfScore >= octaveRatio * score ? half : location;
+}
+
+/**
+ * Refines the peak between lags with a parabola through it and its neighbours.
+ * @return the fractional lag of the peak
+ **/
+float TempoEngine::refinePeak(const std::vector<float>& data, int location)
+{
+    if (location + 1 >= static_cast<int>(data.size())) {
+        return location;
+    }
+    float left = data[location - 1], center = data[location], right = data[location + 1];
+    float curvature = left - 2 * center + right;
+    if (curvature >= 0) {
+        return location;
+    }
+    float offset = 0.5f * (left - right) / curvature;
+    return location + std::max(-0.5f, std::min(0.5f, offset));
+}
+
+/**
+ * Computes a compact signature of the window that does not depend on where the
+ * window starts in the track, compared by Hamming distance. The autocorrelation
+ * alone mostly tells the tempo, so the spectral balance comes first:
+ * 1) Every band's level below the loudest one, in 6 dB steps, as a thermometer code
+ *    of <code>levelBits</code> bits: one step more or less is one bit of difference.
+ * 2) The normalized autocorrelation split into the remaining number of segments,
+ *    where each bit tells whether the segment mean is above the overall mean. The
+ *    peaks and valleys stay on their side from window to window, where a comparison
+ *    with the neighbouring segment flips on every flat stretch.
+ * @param levels <code>fingerprintBands</code> mean magnitudes, in any band order
+ * @return the 64-bit fingerprint
+ **/
+uint64_t TempoEngine::fingerprint(const std::vector<float>& wy, const std::vector<float>& levels)
+{
+    const int levelBits = 6;
+    uint64_t result = 0;
+    int bit = 0;
+
+    int bands = std::min(static_cast<int>(levels.size()), static_cast<int>(fingerprintBands));
+    float loudest = 0;
+    for (int band = 0; band < bands; ++band) {
+        loudest = std::max(loudest, levels[band]);
+    }
+    for (int band = 0; band < bands; ++band) {
+        float level = levels[band];
+        int steps = 0;
+        if (level > 0) {
+            float below = std::log2(level / loudest);
+            steps = std::max(0, levelBits + static_cast<int>(std::floor(below + 0.5f)));
+        }
+        for (int i = 0; i < steps; ++i) {
+            result |= uint64_t(1) << (bit + i);
+        }
+        bit += levelBits;
+    }
+
+    const int segments = 64 - bit;
+    int size = wy.size();
+    float overall = 0;
+    for (int i = 0; i < size; ++i) {
+        overall += wy[i];
+    }
+    overall /= std::max(1, size);
+    for (int segment = 0; segment < segments; ++segment, ++bit) {
+        int from = size * segment / segments;
+        int to = size * (segment + 1) / segments;
+        float sum = 0;
+        for (int i = from; i < to; ++i) {
+            sum += wy[i];
+        }
+        float mean = sum / std::max(1, to - from);
+        if (mean > overall) {
+            result |= uint64_t(1) << bit;
+        }
+    }
+    return result;
+}
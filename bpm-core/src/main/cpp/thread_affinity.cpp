@@ -0,0 +1,61 @@
+#include "thread_affinity.h"
+
+#include <sched.h>
+#include <unistd.h>
+
+#include <algorithm>
+#include <climits>
+#include <cstdio>
+#include <vector>
+
+namespace {
+
+    long readMaxFrequency(int cpu)
+    {
+        char path[96];
+        snprintf(path, sizeof(path), "/sys/devices/system/cpu/cpu%d/cpufreq/cpuinfo_max_freq", cpu);
+        FILE* file = fopen(path, "r");
+        if (file == nullptr) {
+            return -1;
+        }
+        long frequency = -1;
+        if (fscanf(file, "%ld", &frequency) != 1) {
+            frequency = -1;
+        }
+        fclose(file);
+        return frequency;
+    }
+
+}  // anonymous namespace
+
+bool pinToEfficiencyCores()
+{
+    int cpus = sysconf(_SC_NPROCESSORS_CONF);
+    if (cpus <= 1 || cpus > CPU_SETSIZE) {
+        return false;
+    }
+
+    std::vector<long> frequencies(cpus);
+    long lowest = LONG_MAX, highest = 0;
+    for (int cpu = 0; cpu < cpus; ++cpu) {
+        frequencies[cpu] = readMaxFrequency(cpu);
+        if (frequencies[cpu] > 0) {
+            lowest = std::min(lowest, frequencies[cpu]);
+            highest = std::max(highest, frequencies[cpu]);
+        }
+    }
+    if (highest == 0 || lowest == highest) {
+        return false;
+    }
+
+    cpu_set_t set;
+    CPU_ZERO(&set);
+    for (int cpu = 0; cpu < cpus; ++cpu) {
+        if (frequencies[cpu] == lowest) {
+            CPU_SET(cpu, &set);
+        }
+    }
+
+    // pid 0 is the calling thread
+    return sched_setaffinity(0, sizeof(set), &set) == 0;
+}
@@ -0,0 +1,8 @@
+#pragma once
+
+/**
+ * Restricts the calling thread to the CPUs with the lowest maximum frequency,
+ * i.e. the efficiency cores on big.LITTLE systems.
+ * @return false if the frequencies cannot be read, or all cores are the same
+ **/
+bool pinToEfficiencyCores();
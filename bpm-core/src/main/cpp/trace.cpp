@@ -0,0 +1,80 @@
+#include <atomic>
+#include <cinttypes>
+#include <cstdio>
+#include <ctime>
+#include <mutex>
+#include <sys/syscall.h>
+#include <unistd.h>
+
+#include "trace.h"
+
+namespace {
+
+    struct Event {
+        const char* name;
+        int64_t start;
+        int64_t duration;
+        int64_t tid;
+        int64_t position;
+    };
+
+    const size_t capacity = 8192;
+
+    std::atomic<bool> enabled(false);
+    std::mutex lock;
+    Event events[capacity];
+    size_t count = 0;
+
+}  // anonymous namespace
+
+namespace trace {
+
+    void setEnabled(bool value) {
+        enabled.store(value, std::memory_order_relaxed);
+    }
+
+    bool isEnabled() {
+        return enabled.load(std::memory_order_relaxed);
+    }
+
+    int64_t nowNanos() {
+        timespec ts;
+        clock_gettime(CLOCK_MONOTONIC, &ts);
+        return static_cast<int64_t>(ts.tv_sec) * 1000000000 + ts.tv_nsec;
+    }
+
+    int64_t threadId() {
+        return static_cast<int64_t>(syscall(SYS_gettid));
+    }
+
+    void span(const char* name, int64_t startNanos, int64_t endNanos, int64_t position) {
+        int64_t tid = threadId();
+        std::lock_guard<std::mutex> guard(lock);
+        events[count % capacity] = { name, startNanos, endNanos - startNanos, tid, position };
+        ++count;
+    }
+
+    std::string exportEvents() {
+        std::lock_guard<std::mutex> guard(lock);
+        std::string json;
+        char buffer[256];
+        size_t first = count > capacity ? count - capacity : 0;
+        for (size_t i = first; i < count; ++i) {
+            const Event& e = events[i % capacity];
+            int n = snprintf(buffer, sizeof(buffer),
+                "%s{\"name\":\"%s\",\"cat\":\"native\",\"ph\":\"X\",\"pid\":1,"
+                "\"tid\":%" PRId64 ",\"ts\":%.3f,\"dur\":%.3f",
+                json.empty() ? "" : ",", e.name, e.tid, e.start / 1000.0, e.duration / 1000.0);
+            json.append(buffer, n);
+            if (e.position >= 0) {
+                n = snprintf(buffer, sizeof(buffer), ",\"args\":{\"position\":%" PRId64 "}",
+                             e.position);
+                json.append(buffer, n);
+            }
+            json += '}';
+        }
+        count = 0;
+        return json;
+    }
+
+}  // namespace trace
@@ -0,0 +1,55 @@
+#pragma once
+
+#include <cstdint>
+#include <string>
+
+/**
+ * In-memory collector of spans for the Chrome trace event format.
+ * Uses the same monotonic clock and thread ids as the Java side, so that both
+ * sides can be exported into a single trace. The oldest spans are overwritten
+ * once the ring is full, and recording costs a single relaxed load while
+ * tracing is off.
+ **/
+namespace trace {
+
+    void setEnabled(bool enabled);
+
+    bool isEnabled();
+
+    // CLOCK_MONOTONIC, same as System.nanoTime()
+    int64_t nowNanos();
+
+    // Kernel thread id of the caller
+    int64_t threadId();
+
+    /**
+     * Records a complete span on the calling thread.
+     * @param name A string literal, only the pointer is kept
+     * @param position Stream position the span worked on, or -1
+     **/
+    void span(const char* name, int64_t startNanos, int64_t endNanos, int64_t position);
+
+    // Returns the recorded spans as comma separated JSON objects, and clears them
+    std::string exportEvents();
+
+    // Records a span for the lifetime of the object
+    class Scope {
+    public:
+        Scope(const char* name, int64_t position)
+            : name(name)
+            , position(position)
+            , start(isEnabled() ? nowNanos() : 0) {}
+
+        ~Scope() {
+            if (start != 0) {
+                span(name, start, nowNanos(), position);
+            }
+        }
+
+    private:
+        const char* name;
+        int64_t position;
+        int64_t start;
+    };
+
+}  // namespace trace
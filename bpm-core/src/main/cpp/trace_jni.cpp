@@ -0,0 +1,25 @@
+#include <jni.h>
+#include "trace.h"
+
+#define JNI_METHOD(return_type, method_name) \
+  JNIEXPORT return_type JNICALL              \
+      Java_com_ginkage_bpmdetect_Tracer_##method_name
+
+extern "C" {
+
+JNI_METHOD(void, nativeSetEnabled)
+(JNIEnv *env, jclass clazz, jboolean enabled) {
+    trace::setEnabled(enabled);
+}
+
+JNI_METHOD(jlong, nativeGetThreadId)
+(JNIEnv *env, jclass clazz) {
+    return static_cast<jlong>(trace::threadId());
+}
+
+JNI_METHOD(jstring, nativeExportEvents)
+(JNIEnv *env, jclass clazz) {
+    return env->NewStringUTF(trace::exportEvents().c_str());
+}
+
+}  // extern "C"
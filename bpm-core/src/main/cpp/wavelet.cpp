@@ -0,0 +1,124 @@
+#include <algorithm>
+#include <cmath>
+
+#include "wavelet.h"
+
+const float Wavelet::scalingDecom[8] { -0.010597401784997278f, 0.032883011666982945f,
+                                       0.030841381835986965f, -0.18703481171888114f,
+                                       -0.02798376941698385f, 0.6308807679295904f,
+                                       0.7148465705525415f, 0.23037781330885523f };
+
+const float Wavelet::waveletDecom[8] { 0.23037781330885523f, -0.7148465705525415f,
+                                       0.6308807679295904f, 0.02798376941698385f,
+                                       -0.18703481171888114f, -0.030841381835986965f,
+                                       0.032883011666982945f, 0.010597401784997278f };
+
+Wavelet::Wavelet(int size, int maxLevel)
+    : length(size)
+    , levels(std::min(std::ilogb(size), maxLevel))
+    , decomp(levels)
+{
+    unsigned int half = size / 2;
+    for (int level = 0; level < levels; level++) {
+        decomp[level] = { std::vector<float>(half), std::vector<float>(half) };
+        half >>= 1u;
+    }
+}
+
+// 1-D forward transforms from time domain to all possible Hilbert domains
+std::vector<decomposition>& Wavelet::decompose(const float* data)
+{
+    const float* prev = data;
+    for (auto& level : decomp) {
+        forward(prev, level);
+        prev = level.first.data();
+    }
+    return decomp;
+}
+
+size_t Wavelet::memoryBytes() const
+{
+    size_t bytes = 0;
+    for (const auto& level : decomp) {
+        bytes += (level.first.size() + level.second.size()) * sizeof(float);
+    }
+    return bytes;
+}
+
+void Wavelet::forward(const float* data, decomposition& out)
+{
+    std::vector<float>& energy = out.first;
+    std::vector<float>& detail = out.second;
+    unsigned int half = energy.size();
+    unsigned int mask = (half << 1u) - 1u;
+
+    for (unsigned int i = 0; i < half; ++i) {
+        float e = 0, d = 0;
+        for (unsigned int j = 0; j < 8; ++j) {
+            float v = data[((i << 1u) + j) & mask];
+            // low pass filter for the energy (approximation)
+            e += v * scalingDecom[j];
+            // high pass filter for the details
+            d += v * waveletDecom[j];
+        }
+        energy[i] = e;
+        detail[i] = d;
+    }
+}
+
+// Q15 versions of the filters above. The sum of absolute values of either one is
+// below 2, so a full-scale 16-bit input cannot overflow the 32-bit accumulator.
+const int16_t FixedWavelet::scalingDecom[8] { -347, 1078, 1011, -6129, -917, 20673, 23424, 7549 };
+
+const int16_t FixedWavelet::waveletDecom[8] { 7549, -23424, 20673, 917, -6129, -1011, 1078, 347 };
+
+FixedWavelet::FixedWavelet(int size, int maxLevel)
+    : length(size)
+    , levels(std::min(std::ilogb(size), maxLevel))
+    , decomp(levels)
+{
+    unsigned int half = size / 2;
+    for (unsigned int level = 0; level < levels; level++) {
+        decomp[level] = { std::vector<int16_t>(half), std::vector<int16_t>(half) };
+        half >>= 1u;
+    }
+}
+
+std::vector<fixed_decomposition>& FixedWavelet::decompose(const int16_t* data)
+{
+    const int16_t* prev = data;
+    for (auto& level : decomp) {
+        forward(prev, level);
+        prev = level.first.data();
+    }
+    return decomp;
+}
+
+size_t FixedWavelet::memoryBytes() const
+{
+    size_t bytes = 0;
+    for (const auto& level : decomp) {
+        bytes += (level.first.size() + level.second.size()) * sizeof(int16_t);
+    }
+    return bytes;
+}
+
+void FixedWavelet::forward(const int16_t* data, fixed_decomposition& out)
+{
+    std::vector<int16_t>& energy = out.first;
+    std::vector<int16_t>& detail = out.second;
+    unsigned int half = energy.size();
+    unsigned int mask = (half << 1u) - 1u;
+
+    for (unsigned int i = 0; i < half; ++i) {
+        int32_t e = 0, d = 0;
+        for (unsigned int j = 0; j < 8; ++j) {
+            int32_t v = data[((i << 1u) + j) & mask];
+            e += v * scalingDecom[j];
+            d += v * waveletDecom[j];
+        }
+        // Q15 product back to 16 bits, with one extra bit of headroom per level
+        energy[i] = static_cast<int16_t>(e >> 16);
+        detail[i] = static_cast<int16_t>(d >> 16);
+    }
+}
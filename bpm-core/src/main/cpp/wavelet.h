@@ -0,0 +1,57 @@
+#pragma once
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+typedef std::pair<std::vector<float>, std::vector<float>> decomposition;
+typedef std::pair<std::vector<int16_t>, std::vector<int16_t>> fixed_decomposition;
+
+class Wavelet {
+public:
+    Wavelet(int size, int maxLevel);
+
+    // 1-D forward transforms from time domain to all possible Hilbert domains
+    std::vector<decomposition>& decompose(const float* data);
+
+    // Bytes held by the decomposition levels
+    size_t memoryBytes() const;
+
+protected:
+    // 1-D forward transform from time domain to Hilbert domain
+    void forward(const float* data, decomposition& out);
+
+private:
+    unsigned int length;
+    unsigned int levels;
+    std::vector<decomposition> decomp;
+
+    // Filter banks are the same for every instance, so they are not copied per detector
+    static const float scalingDecom[8];
+    static const float waveletDecom[8];
+};
+
+/**
+ * Q15 fixed-point version of <code>Wavelet</code> for 16-bit PCM input.
+ * Every level is scaled down by 2 to keep the filter gain within 16 bits,
+ * so level <code>k</code> (zero-based) holds the float values times 2^-(k + 1).
+ **/
+class FixedWavelet {
+public:
+    FixedWavelet(int size, int maxLevel);
+
+    std::vector<fixed_decomposition>& decompose(const int16_t* data);
+
+    size_t memoryBytes() const;
+
+protected:
+    void forward(const int16_t* data, fixed_decomposition& out);
+
+private:
+    unsigned int length;
+    unsigned int levels;
+    std::vector<fixed_decomposition> decomp;
+
+    static const int16_t scalingDecom[8];
+    static const int16_t waveletDecom[8];
+};
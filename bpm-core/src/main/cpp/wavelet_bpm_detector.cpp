@@ -0,0 +1,322 @@
+#include "wavelet_bpm_detector.h"
+#include "trace.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstdlib>
+#include <complex>
+#include <cstring>
+#include <utility>
+
+namespace {
+
+    // Largest band weight the fixed-point envelope sum can take without overflowing
+    const float maxFixedWeight = 4.0f;
+
+}  // anonymous namespace
+
+WaveletBPMDetector::WaveletBPMDetector(int rate, int size)
+    : tables(DetectorTables::get(rate, size))
+    , scratch(tables->acquireScratch())
+    , levels(tables->levels)
+    , maxPace(tables->maxPace)
+    , corrSize(tables->corrSize)
+    , dCMinLength(tables->dCMinLength)
+    , minute(tables->minute)
+    , minIndex(tables->minIndex)
+    , maxIndex(tables->maxIndex)
+    , bands(levels + 1)
+    , bandOutput(false)
+    , adaptiveWeights(false)
+    , clarity(bands)
+    , bandLevels(bands)
+    , slidingMedian(std::chrono::seconds(5))
+{
+    freq.wx = tables->wx;
+    freq.wy = std::vector<float>(maxIndex - minIndex);
+    freq.hasBands = false;
+    freq.bands = bands;
+    freq.bandWeights = std::vector<float>(bands, 1.0f);
+}
+
+WaveletBPMDetector::~WaveletBPMDetector()
+{
+    tables->releaseScratch(std::move(scratch));
+}
+
+/**
+ * Envelope extraction for one band in two strided passes over the coefficients:
+ * undersample, rectify and sum for the mean, then remove the mean and accumulate
+ * with the band weight. The coefficients are left untouched.
+ * @param pace the undersampling step, 1 for the final approximation
+ **/
+void WaveletBPMDetector::recombine(const std::vector<float>& data, unsigned int pace, int band)
+{
+    // Four partial sums let the reduction vectorize without -ffast-math. The envelope
+    // length is a multiple of four for the window sizes that DetectorTables supports.
+    const float* src = data.data();
+    float total[4] = { 0, 0, 0, 0 };
+    for (int i = 0, j = 0; i < dCMinLength; i += 4, j += 4 * pace) {
+        total[0] += std::fabs(src[j]);
+        total[1] += std::fabs(src[j + pace]);
+        total[2] += std::fabs(src[j + 2 * pace]);
+        total[3] += std::fabs(src[j + 3 * pace]);
+    }
+    float mean = (total[0] + total[1] + total[2] + total[3]) / dCMinLength;
+    float weight = freq.bandWeights[band];
+    bandLevels[band] = mean;
+
+    // Keep the branch out of the loops so that both of them vectorize
+    float* sum = scratch->dCSum.data();
+    if (bandOutput || adaptiveWeights) {
+        float* env = freq.bandEnvelopes.data() + band * dCMinLength;
+        for (int i = 0, j = 0; i < dCMinLength; ++i, j += pace) {
+            env[i] = std::fabs(src[j]) - mean;
+            sum[i] += weight * env[i];
+        }
+    } else {
+        for (int i = 0, j = 0; i < dCMinLength; ++i, j += pace) {
+            sum[i] += weight * (std::fabs(src[j]) - mean);
+        }
+    }
+}
+
+void WaveletBPMDetector::analyzeBands()
+{
+    int range = maxIndex - minIndex;
+    for (int band = 0; band < bands; ++band) {
+        const float* env = freq.bandEnvelopes.data() + band * dCMinLength;
+        std::copy(env, env + dCMinLength, bandTmp.begin());
+        autocorrelate(bandTmp);
+
+        float* out = freq.bandCorr.data() + band * range;
+        float scale = bandTmp[0] > 0 ? 1.0f / bandTmp[0] : 0.0f;
+        float best = 0;
+        for (int i = minIndex; i < maxIndex; ++i) {
+            out[i - minIndex] = bandTmp[i] * scale;
+            best = std::max(best, out[i - minIndex]);
+        }
+        clarity[band] = best;
+    }
+
+    if (adaptiveWeights) {
+        // Smooth the weights over windows and keep their mean at 1
+        float total = 0;
+        for (int band = 0; band < bands; ++band) {
+            freq.bandWeights[band] = 0.9f * freq.bandWeights[band] + 0.1f * clarity[band];
+            total += freq.bandWeights[band];
+        }
+        if (total > 0) {
+            for (float& weight : freq.bandWeights) {
+                weight *= bands / total;
+            }
+        }
+    }
+}
+
+void WaveletBPMDetector::setBandWeights(const float* weights, int count)
+{
+    adaptiveWeights = false;
+    for (int band = 0; band < bands && band < count; ++band) {
+        freq.bandWeights[band] = weights[band];
+    }
+}
+
+void WaveletBPMDetector::setAdaptiveWeights(bool enabled)
+{
+    adaptiveWeights = enabled;
+    if (enabled) {
+        std::fill(freq.bandWeights.begin(), freq.bandWeights.end(), 1.0f);
+    }
+    setBandOutput(bandOutput);
+}
+
+void WaveletBPMDetector::setBandOutput(bool enabled)
+{
+    bandOutput = enabled;
+    freq.hasBands = enabled;
+    if ((enabled || adaptiveWeights) && bandTmp.empty()) {
+        bandTmp = std::vector<float>(dCMinLength);
+        freq.bandEnvelopes = std::vector<float>(bands * dCMinLength);
+        freq.bandCorr = std::vector<float>(bands * (maxIndex - minIndex));
+    }
+}
+
+std::vector<float> WaveletBPMDetector::autocorrelate(std::vector<float>& data)
+{
+    float* corr = scratch->corr;
+    fftwf_complex* out = scratch->out;
+
+    int n = data.size();
+    memcpy(corr, data.data(), n * sizeof(float));
+    memset(corr + n, 0, n * sizeof(float));
+
+    fftwf_execute_dft_r2c(tables->plan_forward, corr, out);
+
+    auto* cplx = (std::complex<float>*)out;
+    for (int i = 0; i <= n; i++) {
+        cplx[i] *= std::conj(cplx[i]);
+    }
+
+    fftwf_execute_dft_c2r(tables->plan_back, out, corr);
+
+    float scale = 1.0f / corrSize;
+    for (int i = 0; i < n; i++) {
+        data[i] = corr[i] * scale;
+    }
+
+    return data;
+}
+
+FreqData *WaveletBPMDetector::process(const float* data, int count, int64_t position)
+{
+    return computeWindowBpm(data, position);
+}
+
+FreqData *WaveletBPMDetector::process(const int16_t* data, int count, int64_t position)
+{
+    return computeWindowBpm(data, position);
+}
+
+FreqData *WaveletBPMDetector::computeWindowBpm(const float* data, int64_t position)
+{
+    {
+        trace::Scope scope("bpm.envelope", position);
+
+        // Apply DWT
+        const std::vector<decomposition>& decomp = scratch->getWavelet().decompose(data);
+        std::vector<float>& dCSum = scratch->dCSum;
+        std::fill(dCSum.begin(), dCSum.end(), 0);
+
+        // 4 Level DWT: extract the envelope from the detail coefficients of each level
+        // (undersample, absolute value, subtract mean) and recombine them
+        trace::Scope recombineScope("bpm.recombine", position);
+        int band = 0;
+        for (unsigned int loop = 0, pace = maxPace; loop < levels; ++loop, pace >>= 1) {
+            recombine(decomp[loop].second, pace, band++);
+        }
+
+        // Add the last approximated data
+        recombine(decomp[levels - 1].first, 1, band);
+    }
+
+    return finishWindow(position);
+}
+
+FreqData *WaveletBPMDetector::computeWindowBpm(const int16_t* data, int64_t position)
+{
+    {
+        trace::Scope scope("bpm.envelope", position);
+
+        // Apply DWT
+        std::vector<fixed_decomposition>& decomp = scratch->getFixedWavelet().decompose(data);
+        std::vector<int32_t>& fixedSum = scratch->fixedSum;
+        std::fill(fixedSum.begin(), fixedSum.end(), 0);
+
+        trace::Scope recombineScope("bpm.recombine", position);
+        int band = 0;
+        for (unsigned int loop = 0, pace = maxPace; loop < levels; ++loop, pace >>= 1) {
+            recombineFixed(decomp[loop].second, pace, loop + 1, band++);
+        }
+        recombineFixed(decomp[levels - 1].first, 1, levels, band);
+
+        // Back to float for the autocorrelation, the scale does not matter past this point
+        std::vector<float>& dCSum = scratch->dCSum;
+        for (int i = 0; i < dCMinLength; ++i) {
+            dCSum[i] = static_cast<float>(fixedSum[i]);
+        }
+    }
+
+    return finishWindow(position);
+}
+
+/**
+ * Fixed-point envelope extraction for one band: undersample, rectify, remove
+ * the mean and accumulate with the band weight, all in integers.
+ * @param shift the level scaling to undo, see <code>FixedWavelet</code>
+ **/
+void WaveletBPMDetector::recombineFixed(
+    const std::vector<int16_t>& data, unsigned int pace, int shift, int band)
+{
+    const int16_t* src = data.data();
+    int64_t total = 0;
+    for (int i = 0, j = 0; i < dCMinLength; ++i, j += pace) {
+        total += std::abs(static_cast<int32_t>(src[j]));
+    }
+    int32_t mean = static_cast<int32_t>(total / dCMinLength);
+    bandLevels[band] = static_cast<float>(mean) * (1 << shift);
+
+    // Weight in Q6 combined with the level scale: at most 2^12 for weights up to 4,
+    // which keeps five 16-bit bands within the 32-bit sum. Adaptive weights can reach
+    // the number of bands, so they are clamped here.
+    float weight = std::min(std::max(freq.bandWeights[band], 0.0f), maxFixedWeight);
+    int32_t factor = static_cast<int32_t>(weight * (1 << shift) * 64.0f + 0.5f);
+
+    int32_t* sum = scratch->fixedSum.data();
+    if (bandOutput || adaptiveWeights) {
+        float* env = freq.bandEnvelopes.data() + band * dCMinLength;
+        float scale = static_cast<float>(1 << shift);
+        for (int i = 0, j = 0; i < dCMinLength; ++i, j += pace) {
+            int32_t value = std::abs(static_cast<int32_t>(src[j])) - mean;
+            env[i] = value * scale;
+            sum[i] += value * factor;
+        }
+    } else {
+        for (int i = 0, j = 0; i < dCMinLength; ++i, j += pace) {
+            sum[i] += (std::abs(static_cast<int32_t>(src[j])) - mean) * factor;
+        }
+    }
+}
+
+FreqData *WaveletBPMDetector::finishWindow(int64_t position)
+{
+    std::vector<float>& dCSum = scratch->dCSum;
+
+    if (bandOutput || adaptiveWeights) {
+        analyzeBands();
+    }
+
+    // Autocorrelation
+    {
+        trace::Scope scope("bpm.autocorrelation", position);
+        autocorrelate(dCSum);
+    }
+
+    // Detect peak in correlated data
+    trace::Scope scope("bpm.peak", position);
+    freq.position = position;
+    int location = detectPeak(dCSum, minIndex, maxIndex, freq);
+
+    // Nothing correlates, e.g. in digital silence: keep the last tempo
+    if (location <= 0) {
+        freq.windowBpm = freq.bpm;
+        freq.prominence = 0;
+        return &freq;
+    }
+
+    freq.fingerprint = fingerprint(freq.wy, bandLevels);
+
+    // Compute window BPM given the peak, between lags
+    float lag = refinePeak(dCSum, checkOctave(dCSum, location, minIndex, dCMinLength));
+    float tmp_bpm = minute / lag;
+    freq.windowBpm = tmp_bpm;
+
+    // Convert it to sliding window median BPM
+    std::chrono::duration<double> streamTime(position / static_cast<double>(tables->sampleRate));
+    Timestamp timestamp(std::chrono::duration_cast<Duration>(streamTime));
+    freq.bpm = slidingMedian.offer(std::make_pair(tmp_bpm, timestamp));
+
+    return &freq;
+}
+
+size_t WaveletBPMDetector::memoryBytes() const
+{
+    size_t floats = freq.wx.size() + freq.wy.size() + freq.bandEnvelopes.size()
+        + freq.bandCorr.size() + freq.bandWeights.size() + bandTmp.size() + clarity.size()
+        + bandLevels.size();
+    return scratch->memoryBytes() + floats * sizeof(float);
+}
+
+FreqData *WaveletBPMDetector::getData() {
+    return &freq;
+}
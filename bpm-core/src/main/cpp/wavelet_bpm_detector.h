@@ -0,0 +1,119 @@
+#pragma once
+
+#include "detector_tables.h"
+#include "freq_data.h"
+#include "sliding_median.h"
+#include "tempo_engine.h"
+
+#include <memory>
+#include <vector>
+#include <chrono>
+
+/**
+ * Class <code>WaveletBPMDetector</code> can be used to
+ * detect the tempo of a track in beats-per-minute.
+ * The class implements the algorithm presented by
+ * Tzanetakis, Essl and Cookin the paper titled
+ * "Audio Analysis using the Discrete Wavelet Transform"
+ *
+ * To detect the tempo the discrete wavelet transform is used.
+ * Track samples are divided into windows of frames.
+ * For each window data are divided into 4 frequency sub-bands
+ * through DWT. For each frequency sub-band an envelope is
+ * extracted from the detail coffecients by:
+ * 1) Full wave rectification (take the absolute value),
+ * 2) Downsampling of the coefficients,
+ * 3) Normalization (via mean removal)
+ * These sub-band envelopes, together with the final approximation,
+ * are then summed together with per-band weights.
+ * The resulting collection of data is then autocorrelated.
+ * Peaks in the correlated data correspond to peaks in the
+ * original signal.
+ * then peaks are identified on the filtered data.
+ * Given the position of such a peak the approximated
+ * tempo of the window is computed and appended to a colletion.
+ * Once all windows in the track are processed the beat-per-minute
+ * value is returned as the median of the windows values.
+ **/
+class WaveletBPMDetector : public TempoEngine {
+public:
+    WaveletBPMDetector(int rate, int size);
+    ~WaveletBPMDetector() override;
+
+    // Windowed engine: analyzes the whole window on every call
+    FreqData *process(const float* data, int count, int64_t position) override;
+    FreqData *process(const int16_t* data, int count, int64_t position) override;
+    bool isIncremental() const override { return false; }
+
+    /**
+     * Given <code>windowFrames</code> samples computes a BPM
+     * value for the window and pushes it in <code>instantBpm</code>
+     * @param An array of <code>windowFrames</code> samples representing the window
+     * @param position Stream position just after the window, in samples; the median
+     * window is measured in stream time, so a replay gives the same results at any speed
+     **/
+    FreqData *computeWindowBpm(const float* data, int64_t position);
+
+    /**
+     * Same as above for 16-bit PCM samples, using the fixed-point wavelet
+     * and envelope stages (only the autocorrelation runs in float).
+     **/
+    FreqData *computeWindowBpm(const int16_t* data, int64_t position);
+
+    // For testing
+    std::vector<float> autocorrelate(std::vector<float>& data);
+
+    FreqData *getData() override;
+
+    /**
+     * Sets fixed weights for the detail bands (finest first) and the final
+     * approximation when summing the envelopes, and disables adaptive weighting.
+     * @param weights <code>count</code> values, one per band
+     **/
+    void setBandWeights(const float* weights, int count) override;
+
+    /**
+     * When enabled, weights follow the periodicity of each band, measured as the
+     * highest normalized autocorrelation within the BPM range, and take effect
+     * from the next window.
+     **/
+    void setAdaptiveWeights(bool enabled) override;
+
+    // Keep per-band envelopes and autocorrelations in the output data
+    void setBandOutput(bool enabled) override;
+
+    // Bytes held by this detector, not counting the shared tables
+    size_t memoryBytes() const override;
+
+private:
+    void recombine(const std::vector<float>& data, unsigned int pace, int band);
+    void recombineFixed(const std::vector<int16_t>& data, unsigned int pace, int shift, int band);
+    FreqData *finishWindow(int64_t position);
+    void analyzeBands();
+
+    // Shared with all detectors of the same configuration
+    std::shared_ptr<DetectorTables> tables;
+    std::unique_ptr<DetectorScratch> scratch;
+
+    int levels;
+    int maxPace;
+    int corrSize;
+    int dCMinLength;
+    float minute;
+    int minIndex;
+    int maxIndex;
+
+    int bands;
+    bool bandOutput;
+    bool adaptiveWeights;
+    std::vector<float> bandTmp;
+    std::vector<float> clarity;
+    // Mean magnitude of every band in the last window, for the fingerprint
+    std::vector<float> bandLevels;
+
+    using Timestamp = std::chrono::steady_clock::time_point;
+    using Duration = std::chrono::steady_clock::duration;
+    SlidingMedian<float, Timestamp, Duration> slidingMedian;
+
+    FreqData freq;
+};
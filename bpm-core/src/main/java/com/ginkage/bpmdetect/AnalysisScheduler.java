@@ -0,0 +1,102 @@
+package com.ginkage.bpmdetect;
+
+import java.util.Locale;
+
+/**
+ * Picks how many new samples to wait for before analyzing the next window.
+ *
+ * <p>Once the tempo is locked (the window estimate agrees with the median, the autocorrelation
+ * peak is sharp and the envelope fingerprint does not change), the hop doubles after every window
+ * up to the ceiling. As soon as any of these stops being true, it drops back to the floor.
+ */
+public class AnalysisScheduler {
+    // Window estimate within this distance of the median counts as agreeing
+    private static final float MAX_BPM_DIFFERENCE = 1.0f;
+    // Peak height over the mean of the normalized autocorrelation
+    private static final float MIN_PROMINENCE = 0.5f;
+    // Fingerprints of the same music differ in a few bits between windows
+    private static final int MAX_FINGERPRINT_DISTANCE = 12;
+
+    private final int sampleRate;
+    private final int minHop;
+    private final int maxHop;
+    private int hop;
+    private long lastFingerprint;
+
+    // Statistics, in samples of the analyzed stream
+    private long windows;
+    private long firstPosition = -1;
+    private long lastPosition;
+    private long unlockedSince = -1;
+    private long relocks;
+    private long relockSamples;
+
+    /**
+     * @param minHop Hop while the tempo is changing, i.e. the highest analysis rate.
+     * @param maxHop Hop once the tempo is locked, i.e. the lowest analysis rate.
+     */
+    AnalysisScheduler(int sampleRate, int minHop, int maxHop) {
+        this.sampleRate = sampleRate;
+        this.minHop = minHop;
+        this.maxHop = Math.max(minHop, maxHop);
+        this.hop = minHop;
+    }
+
+    int getHop() {
+        return hop;
+    }
+
+    /** Goes back to the highest rate, e.g. when the audio resumes after silence. */
+    void reset() {
+        hop = minHop;
+    }
+
+    /**
+     * Updates the hop from the results of the window that ended at {@code position}.
+     */
+    void update(long position, float bpm, float windowBpm, float prominence, long fingerprint) {
+        boolean agrees = Math.abs(windowBpm - bpm) <= MAX_BPM_DIFFERENCE;
+        boolean sharp = prominence >= MIN_PROMINENCE;
+        boolean sameEnvelope =
+                windows > 0 && Long.bitCount(fingerprint ^ lastFingerprint) <= MAX_FINGERPRINT_DISTANCE;
+        boolean locked = agrees && sharp && sameEnvelope;
+
+        if (locked) {
+            if (unlockedSince >= 0) {
+                relocks++;
+                relockSamples += position - unlockedSince;
+                unlockedSince = -1;
+            }
+            hop = Math.min(maxHop, hop * 2);
+        } else {
+            if (unlockedSince < 0) {
+                unlockedSince = position;
+            }
+            hop = minHop;
+        }
+
+        lastFingerprint = fingerprint;
+        if (firstPosition < 0) {
+            firstPosition = position;
+        }
+        lastPosition = position;
+        windows++;
+    }
+
+    /** Fraction of the windows saved compared to always analyzing at the highest rate. */
+    float getCpuSaved() {
+        long fixedRateWindows = (lastPosition - firstPosition) / minHop + 1;
+        return windows > 0 ? 1.0f - (float) windows / fixedRateWindows : 0;
+    }
+
+    /** Average time from losing the lock (e.g. a tempo change) to locking again. */
+    float getAverageRelockSeconds() {
+        return relocks > 0 ? (float) relockSamples / relocks / sampleRate : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d windows, %.0f%% saved, %.2f s average re-lock",
+                windows, getCpuSaved() * 100, getAverageRelockSeconds());
+    }
+}
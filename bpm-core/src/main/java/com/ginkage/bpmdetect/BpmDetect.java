@@ -0,0 +1,274 @@
+package com.ginkage.bpmdetect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+class BpmDetect {
+
+    private static final String TAG = "BpmDetect";
+
+    // Same as the native sliding median window
+    private static final int SETTLE_SECONDS = 5;
+    private static final int MAX_WARMUP_WINDOWS = 64;
+    // Once settled, this many windows in a row away from the median mean a new track
+    private static final int CHANGE_WINDOWS = 4;
+    private static final float CHANGE_RATIO = 0.03f;
+
+    /** Tempo detectors, in the order of the native engine types. */
+    enum Engine {
+        // Autocorrelation of the wavelet band envelopes over the whole window, of the amplitudes
+        WAVELET(false),
+        // Autocorrelation of the onsets found by spectral flux, fed with the new samples only.
+        // Rectified amplitudes would fold every tone into a DC offset and its harmonics, so it
+        // reads the signed mix of the channels.
+        SPECTRAL_FLUX(true);
+
+        // Whether CaptureRings must fill the mono ring with the signed mix for this engine
+        final boolean signedMix;
+
+        Engine(boolean signedMix) {
+            this.signedMix = signedMix;
+        }
+    }
+
+    interface BpmCallback {
+        void onCreate(float[] xAxis);
+        /**
+         * @param position Stream position just after the analyzed window.
+         * @param captureNanos System.nanoTime() at which that position was captured, -1 if
+         *     unknown.
+         */
+        void onProcess(float[] yAxis, float bpm, long position, long captureNanos);
+
+        // Per-band envelopes and autocorrelations (band-major), only sent when enabled
+        default void onBands(float[] envelopes, float[] correlations, float[] weights) {}
+    }
+
+    private final long nativeBpmDetectPtr;
+    private final BpmCallback callback;
+    private final SampleBuffer samples;
+    private final int windowSize;
+    private final float[] values;
+    private final short[] fixedValues;
+    private final TempoCache tempoCache;
+    private final long settleSamples;
+    private final long[] warmupPrints = new long[MAX_WARMUP_WINDOWS];
+    private int warmupCount;
+    private long warmupStart = -1;
+    private float knownBpm = Float.NaN;
+    private int changeWindows;
+    private long lastFingerprint;
+    private final boolean incremental;
+    private long lastPosition;
+    private long gapSamples;
+    private AnalysisScheduler scheduler;
+    private TempoHistory history;
+
+    static {
+        System.loadLibrary("bpm_detect_jni");
+    }
+
+    public BpmDetect(SampleBuffer samples, int sampleRate, int windowSize, TempoCache tempoCache,
+            BpmCallback callback) {
+        this(Engine.WAVELET, samples, sampleRate, windowSize, tempoCache, callback);
+    }
+
+    /** @param windowSize The analysis window, or the most new samples per call if incremental. */
+    public BpmDetect(Engine engine, SampleBuffer samples, int sampleRate, int windowSize,
+            TempoCache tempoCache, BpmCallback callback) {
+        this.samples = samples;
+        this.windowSize = windowSize;
+        this.tempoCache = tempoCache;
+        this.settleSamples = (long) SETTLE_SECONDS * sampleRate;
+        // 16-bit input goes through the fixed-point native path
+        if (samples instanceof ShortCircularBuffer) {
+            this.values = null;
+            this.fixedValues = new short[windowSize];
+        } else {
+            this.values = new float[windowSize];
+            this.fixedValues = null;
+        }
+        this.callback = checkNotNull(callback);
+        this.nativeBpmDetectPtr = nativeInit(engine.ordinal(), sampleRate, windowSize);
+        if (nativeBpmDetectPtr == 0) {
+            throw new IllegalArgumentException(
+                    "Unsupported engine or window size: " + engine + ", " + windowSize);
+        }
+        this.incremental = nativeIsIncremental(nativeBpmDetectPtr);
+    }
+
+    synchronized void processSamples() {
+        // Windowed engines take the whole window every time, incremental ones the new samples
+        long latest = samples.getLatest();
+        int count = incremental ? (int) Math.min(windowSize, latest - lastPosition) : windowSize;
+        if (incremental ? count > 0 : latest >= windowSize) {
+            long start = Tracer.begin();
+            long position;
+            if (incremental) {
+                // Continue from the previous call. Samples overwritten since then are a gap for
+                // the engine, which sees that the new ones do not start where it stopped.
+                position = readFrom(lastPosition, count);
+                gapSamples += position - count - lastPosition;
+            } else {
+                position = readLatest(count);
+            }
+            if (fixedValues != null) {
+                nativeProcessFixed(nativeBpmDetectPtr, fixedValues, count, position);
+            } else {
+                nativeProcess(nativeBpmDetectPtr, values, count, position);
+            }
+            lastPosition = position;
+            Tracer.end("bpm.window", start, position);
+        }
+    }
+
+    private long readLatest(int count) {
+        return fixedValues != null
+                ? ((ShortCircularBuffer) samples).read(fixedValues, count)
+                : samples.read(values, count);
+    }
+
+    private long readFrom(long from, int count) {
+        return fixedValues != null
+                ? ((ShortCircularBuffer) samples).readAt(from, fixedValues, count)
+                : samples.readAt(from, values, count);
+    }
+
+    boolean isIncremental() {
+        return incremental;
+    }
+
+    // Samples that an incremental engine missed because they were overwritten before it got them
+    synchronized long getGapSamples() {
+        return gapSamples;
+    }
+
+    /**
+     * Starts over with the tempo cache, as for a new track: looks up the next windows, and
+     * remembers them once the median settles on the new tempo.
+     */
+    synchronized void restartWarmup() {
+        warmupStart = -1;
+        warmupCount = 0;
+        knownBpm = Float.NaN;
+        changeWindows = 0;
+    }
+
+    // Fingerprint of the last analyzed window
+    synchronized long getFingerprint() {
+        return lastFingerprint;
+    }
+
+    // Receives the stability of every window to adapt the analysis rate
+    synchronized void setScheduler(AnalysisScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    // Receives every estimate of the detector, before the tempo cache overrides it
+    synchronized void setHistory(TempoHistory history) {
+        this.history = history;
+    }
+
+    synchronized void setBandWeights(float[] weights) {
+        nativeSetBandWeights(nativeBpmDetectPtr, weights);
+    }
+
+    synchronized void setAdaptiveWeights(boolean enabled) {
+        nativeSetAdaptiveWeights(nativeBpmDetectPtr, enabled);
+    }
+
+    synchronized void setBandOutput(boolean enabled) {
+        nativeSetBandOutput(nativeBpmDetectPtr, enabled);
+    }
+
+    long getWindowBytes() {
+        return fixedValues != null ? windowSize * 2L : windowSize * 4L;
+    }
+
+    synchronized long getNativeMemoryBytes() {
+        return nativeGetMemoryBytes(nativeBpmDetectPtr);
+    }
+
+    static boolean pinToEfficiencyCores() {
+        return nativePinToEfficiencyCores();
+    }
+
+    void destroy() {
+        nativeDestroy(nativeBpmDetectPtr);
+    }
+
+    void onCreate(float[] xAxis) {
+        callback.onCreate(xAxis);
+    }
+
+    void onBands(float[] envelopes, float[] correlations, float[] weights) {
+        callback.onBands(envelopes, correlations, weights);
+    }
+
+    void onProcess(float[] yAxis, float bpm, float windowBpm, float prominence, long fingerprint,
+            long position) {
+        lastFingerprint = fingerprint;
+        if (scheduler != null) {
+            scheduler.update(position, bpm, windowBpm, prominence, fingerprint);
+        }
+        if (history != null) {
+            history.add(position, bpm);
+        }
+
+        if (tempoCache != null) {
+            if (warmupStart < 0) {
+                warmupStart = position;
+            }
+            if (position - warmupStart < settleSamples) {
+                // The median is still warming up: show a known tempo for this track, if any
+                if (warmupCount < warmupPrints.length) {
+                    warmupPrints[warmupCount++] = fingerprint;
+                }
+                if (Float.isNaN(knownBpm)) {
+                    knownBpm = tempoCache.lookup(fingerprint);
+                }
+                if (!Float.isNaN(knownBpm)) {
+                    bpm = knownBpm;
+                }
+            } else if (warmupCount > 0) {
+                // Settled, remember the tempo for the windows seen during the warm-up
+                for (int i = 0; i < warmupCount; i++) {
+                    tempoCache.put(warmupPrints[i], bpm);
+                }
+                warmupCount = 0;
+            } else if (bpm > 0 && Math.abs(windowBpm - bpm) > CHANGE_RATIO * bpm) {
+                // The median lags behind a new track, which may be in the cache already
+                if (++changeWindows >= CHANGE_WINDOWS) {
+                    restartWarmup();
+                }
+            } else {
+                changeWindows = 0;
+            }
+        }
+
+        long start = Tracer.begin();
+        callback.onProcess(yAxis, bpm, position, samples.getTimestamp(position));
+        Tracer.end("bpm.callback", start, position);
+    }
+
+    private native long nativeInit(int engine, int sampleRate, int windowSize);
+
+    private native void nativeProcess(
+            long nativeBpmDetectPtr, float[] data, int count, long position);
+
+    private native void nativeProcessFixed(
+            long nativeBpmDetectPtr, short[] data, int count, long position);
+
+    private native void nativeSetBandWeights(long nativeBpmDetectPtr, float[] weights);
+
+    private native void nativeSetAdaptiveWeights(long nativeBpmDetectPtr, boolean enabled);
+
+    private native void nativeSetBandOutput(long nativeBpmDetectPtr, boolean enabled);
+
+    private native boolean nativeIsIncremental(long nativeBpmDetectPtr);
+
+    private native long nativeGetMemoryBytes(long nativeBpmDetectPtr);
+
+    private static native boolean nativePinToEfficiencyCores();
+
+    private native void nativeDestroy(long nativeBpmDetectPtr);
+}
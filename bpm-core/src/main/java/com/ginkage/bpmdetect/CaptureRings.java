@@ -0,0 +1,123 @@
+package com.ginkage.bpmdetect;
+
+/**
+ * The stereo and mono rings fed by the capture, and the conversion between them. Shared by the
+ * live capture and the session replay, so that both produce the same ring contents. The mono ring
+ * holds what the tempo engine reads: the amplitude of every frame, or the signed mix of its
+ * channels.
+ */
+public class CaptureRings {
+    // Either the float or the 16-bit pair is allocated, depending on the capture mode
+    private final boolean fixedPoint;
+    private final boolean signedMix;
+    private final CircularBuffer stereoBuffer;
+    private final CircularBuffer monoBuffer;
+    private final ShortCircularBuffer fixedStereoBuffer;
+    private final ShortCircularBuffer fixedMonoBuffer;
+    private final SilenceGate gate;
+
+    /** Rings whose mono one holds the amplitudes. */
+    CaptureRings(int stereoSize, int monoSize, boolean fixedPoint, boolean offHeap,
+            int silenceHoldFrames) {
+        this(stereoSize, monoSize, fixedPoint, offHeap, silenceHoldFrames, false);
+    }
+
+    /**
+     * @param silenceHoldFrames Frames of silence before the analysis is suspended.
+     * @param signedMix Fill the mono ring with (l + r) / 2 rather than the amplitudes.
+     */
+    CaptureRings(int stereoSize, int monoSize, boolean fixedPoint, boolean offHeap,
+            int silenceHoldFrames, boolean signedMix) {
+        this.fixedPoint = fixedPoint;
+        this.signedMix = signedMix;
+        this.gate = new SilenceGate(silenceHoldFrames);
+        if (fixedPoint) {
+            stereoBuffer = null;
+            monoBuffer = null;
+            fixedStereoBuffer = new ShortCircularBuffer(stereoSize, offHeap);
+            fixedMonoBuffer = new ShortCircularBuffer(monoSize, offHeap);
+        } else {
+            stereoBuffer = new CircularBuffer(stereoSize, offHeap);
+            monoBuffer = new CircularBuffer(monoSize, offHeap);
+            fixedStereoBuffer = null;
+            fixedMonoBuffer = null;
+        }
+    }
+
+    /**
+     * Writes interleaved stereo samples, then overwrites the block with their mono values.
+     *
+     * @param timestampNanos System.nanoTime() at which the block was captured.
+     */
+    void write(float[] buffer, int samples, long timestampNanos) {
+        stereoBuffer.write(buffer, samples, timestampNanos);
+
+        int frames = samples / 2;
+        float energy = 0;
+        for (int i = 0, t = 0; i < frames; i++) {
+            // Read two elements, then write one back.
+            // Using the same array for input and output is not very safe,
+            // but should be fine in this case.
+            float l = buffer[t++];
+            float r = buffer[t++];
+            float square = l * l + r * r;
+            energy += square;
+            buffer[i] = signedMix ? (l + r) * 0.5f : (float) Math.sqrt(square);
+        }
+
+        gate.update(samples > 0 ? energy / samples : 0, frames);
+        monoBuffer.write(buffer, frames, timestampNanos);
+    }
+
+    /** Same as above for 16-bit samples. */
+    void write(short[] buffer, int samples, long timestampNanos) {
+        fixedStereoBuffer.write(buffer, samples, timestampNanos);
+
+        int frames = samples / 2;
+        long energy = 0;
+        for (int i = 0, t = 0; i < frames; i++) {
+            // RMS of the two channels rather than the magnitude, so that it fits in 16 bits.
+            // The overall scale does not matter for the tempo.
+            int l = buffer[t++];
+            int r = buffer[t++];
+            int square = (l * l >> 1) + (r * r >> 1);
+            energy += square;
+            if (signedMix) {
+                buffer[i] = (short) ((l + r) >> 1);
+            } else {
+                int rms = (int) Math.sqrt(square);
+                buffer[i] = (short) Math.min(rms, Short.MAX_VALUE);
+            }
+        }
+
+        gate.update(frames > 0 ? energy / (frames * 32768.0f * 32768.0f) : 0, frames);
+        fixedMonoBuffer.write(buffer, frames, timestampNanos);
+    }
+
+    /** Marks the next block as following lost audio, in both rings. */
+    void markDiscontinuity() {
+        if (fixedPoint) {
+            fixedStereoBuffer.markDiscontinuity();
+            fixedMonoBuffer.markDiscontinuity();
+        } else {
+            stereoBuffer.markDiscontinuity();
+            monoBuffer.markDiscontinuity();
+        }
+    }
+
+    boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    SilenceGate getGate() {
+        return gate;
+    }
+
+    SampleBuffer getStereo() {
+        return fixedPoint ? fixedStereoBuffer : stereoBuffer;
+    }
+
+    SampleBuffer getMono() {
+        return fixedPoint ? fixedMonoBuffer : monoBuffer;
+    }
+}
@@ -0,0 +1,88 @@
+package com.ginkage.bpmdetect;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+// Lock-free circular buffer of floats, for a single writer and a single reader. See RingPositions
+// for how reads and waits stay safe against the writer.
+public class CircularBuffer extends RingPositions {
+    private final FloatBuffer buffer; // Backing storage, on or off the Java heap
+    private final FloatBuffer writeView; // Separate positions for the writer...
+    private final FloatBuffer readView; // ...and the reader
+
+    CircularBuffer(final int size) {
+        this(size, false);
+    }
+
+    CircularBuffer(final int size, boolean direct) {
+        super(size);
+        buffer = direct
+                ? ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+                : FloatBuffer.wrap(new float[size]);
+        writeView = buffer.duplicate();
+        readView = buffer.duplicate();
+    }
+
+    // Replace oldest samples in the circular buffer with input values, captured now
+    void write(float[] values, int n)
+    {
+        write(values, n, System.nanoTime());
+    }
+
+    // Same as above, with the System.nanoTime() at which the values were captured
+    void write(float[] values, int n, long timestampNanos)
+    {
+        // Write {n} values to the buffer, *then* change the current position
+        int pos = beginWrite(n);
+        for (int k, j = 0; j < n; j += k) {
+            k = Math.min(pos + (n - j), size) - pos;
+            writeView.position(pos);
+            writeView.put(values, j, k);
+            pos = (pos + k) % size;
+        }
+        endWrite(n, timestampNanos);
+    }
+
+    // Retrieve latest samples in the circular buffer
+    @Override
+    public long read(float[] values, int n) {
+        while (true) {
+            long end = copy(getLatest() - n, values, n);
+            if (end >= 0) {
+                return end;
+            }
+        }
+    }
+
+    // Retrieve samples at the specified position, or from the oldest one left
+    @Override
+    public long readAt(long from, float[] values, int n) {
+        while (true) {
+            long end = copy(from, values, n);
+            if (end >= 0) {
+                return end;
+            }
+        }
+    }
+
+    // Returns the position just after the copied values, or -1 if the writer came around and
+    // overwrote some of them meanwhile
+    private long copy(long from, float[] values, int n)
+    {
+        from = readStart(from);
+        int start = (int) (from % size);
+
+        for (int k, j = 0; j < n; j += k) {
+            k = Math.min(start + (n - j), size) - start;
+            readView.position(start);
+            readView.get(values, j, k);
+            start = (start + k) % size;
+        }
+
+        return readEnd(from, n);
+    }
+
+    @Override
+    public long getMemoryBytes() { return size * 4L; }
+}
@@ -4,11 +4,12 @@ import org.jtransforms.fft.FloatFFT_1D;
 
 public class FftData {
     private final int size; // Number of values (2 * samples) to analyze
-    private final CircularBuffer buffer;
+    private final SampleBuffer buffer;
     private final float[] input;
     private final FloatFFT_1D fft;
+    private long position;
 
-    FftData(int n, CircularBuffer buf) {
+    FftData(int n, SampleBuffer buf) {
         size = n * 2;
         buffer = buf;
         input = new float[size];
@@ -20,8 +21,13 @@ public class FftData {
      * of floats corresponding to the real and imaginary parts of output.
      */
     public float[] execute() {
-        buffer.read(input, size);
+        position = buffer.read(input, size);
         fft.complexForward(input);
         return input;
     }
+
+    /** Stream position just after the last analyzed window. */
+    long getPosition() {
+        return position;
+    }
 }
@@ -0,0 +1,42 @@
+package com.ginkage.bpmdetect;
+
+import java.util.Locale;
+
+/** Running mean, standard deviation and maximum of durations, e.g. frame times. */
+public class FrameStats {
+    private long count;
+    private double mean;
+    private double m2; // Sum of squared differences from the mean
+    private long max;
+
+    void add(long nanos) {
+        // Welford's algorithm, stable without keeping the samples
+        count++;
+        double delta = nanos - mean;
+        mean += delta / count;
+        m2 += delta * (nanos - mean);
+        max = Math.max(max, nanos);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMeanMicros() {
+        return mean / 1000;
+    }
+
+    double getStdDevMicros() {
+        return count > 1 ? Math.sqrt(m2 / (count - 1)) / 1000 : 0;
+    }
+
+    double getMaxMicros() {
+        return max / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1f us mean, %.1f us sd, %.1f us max over %d",
+                getMeanMicros(), getStdDevMicros(), getMaxMicros(), count);
+    }
+}
@@ -0,0 +1,37 @@
+package com.ginkage.bpmdetect;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** Bytes held by each stage of the pipeline, in the order the stages were reported. */
+public class MemoryBudget {
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+
+    void add(String stage, long bytes) {
+        Long previous = stages.get(stage);
+        stages.put(stage, previous != null ? previous + bytes : bytes);
+    }
+
+    Map<String, Long> getStages() {
+        return stages;
+    }
+
+    long getTotal() {
+        long total = 0;
+        for (long bytes : stages.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> stage : stages.entrySet()) {
+            sb.append(String.format(Locale.US, "%s: %d KB, ", stage.getKey(), stage.getValue() / 1024));
+        }
+        sb.append(String.format(Locale.US, "total: %d KB", getTotal() / 1024));
+        return sb.toString();
+    }
+}
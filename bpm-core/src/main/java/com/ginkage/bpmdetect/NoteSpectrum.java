@@ -0,0 +1,95 @@
+package com.ginkage.bpmdetect;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Constant-Q spectrum of the stereo capture, with one magnitude per note (or fraction of a note)
+ * computed natively into a direct buffer. The native side keeps its own history of every octave,
+ * so only the samples written since the previous update are passed down.
+ */
+class NoteSpectrum {
+    private final long nativeSpectrumPtr;
+    private final SampleBuffer samples;
+    private final float[] input;
+    private final FloatBuffer magnitudes;
+    private final int minNote;
+    private final int binsPerNote;
+    private long position;
+
+    static {
+        System.loadLibrary("bpm_detect_jni");
+    }
+
+    /**
+     * @param samples Interleaved stereo samples.
+     * @param maxSamples Most samples taken from the buffer per update, the next updates take the
+     *     rest.
+     * @param minNote Lowest note, where 57 is A4 (440 Hz).
+     * @param maxNote Highest note, included.
+     * @param binsPerNote Number of bins per semitone.
+     */
+    NoteSpectrum(SampleBuffer samples, int maxSamples, int sampleRate, int minNote, int maxNote,
+            int binsPerNote) {
+        this.samples = samples;
+        this.input = new float[maxSamples];
+        this.minNote = minNote;
+        this.binsPerNote = binsPerNote;
+        int bins = (maxNote - minNote) * binsPerNote + 1;
+        ByteBuffer output = ByteBuffer.allocateDirect(bins * 4).order(ByteOrder.nativeOrder());
+        this.magnitudes = output.asFloatBuffer();
+        this.nativeSpectrumPtr =
+                nativeInit(sampleRate, minNote, maxNote, binsPerNote, output);
+        this.position = samples.getLatest();
+    }
+
+    /**
+     * Feeds the new samples and recomputes the magnitudes, where a full scale sine at the bin
+     * frequency gives 1. The returned buffer is overwritten by the next update.
+     */
+    FloatBuffer execute() {
+        // The native octaves are filtered as a stream, so continue exactly where the previous
+        // update stopped. Only samples overwritten meanwhile are lost.
+        int n = (int) Math.min(samples.getLatest() - position, input.length) & ~1;
+        if (n > 0) {
+            position = samples.readAt(position, input, n);
+            nativeProcess(nativeSpectrumPtr, input, n);
+        }
+        nativeCompute(nativeSpectrumPtr);
+        return magnitudes;
+    }
+
+    /** Stream position just after the last samples fed to the spectrum. */
+    long getPosition() {
+        return position;
+    }
+
+    int getBins() {
+        return magnitudes.capacity();
+    }
+
+    float getNote(int bin) {
+        return minNote + bin / (float) binsPerNote;
+    }
+
+    long getMemoryBytes() {
+        return nativeGetMemoryBytes(nativeSpectrumPtr) + input.length * 4L
+                + magnitudes.capacity() * 4L;
+    }
+
+    void destroy() {
+        nativeDestroy(nativeSpectrumPtr);
+    }
+
+    private native long nativeInit(int sampleRate, int minNote, int maxNote, int binsPerNote,
+            ByteBuffer output);
+
+    private native void nativeProcess(long nativeSpectrumPtr, float[] data, int samples);
+
+    private native void nativeCompute(long nativeSpectrumPtr);
+
+    private native long nativeGetMemoryBytes(long nativeSpectrumPtr);
+
+    private native void nativeDestroy(long nativeSpectrumPtr);
+}
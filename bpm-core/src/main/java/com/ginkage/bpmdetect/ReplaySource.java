@@ -0,0 +1,165 @@
+package com.ginkage.bpmdetect;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays a {@link SessionRecorder} log back into {@link CaptureRings}, either at the recorded pace
+ * or as fast as possible. Nothing here depends on Android, so recorded sessions can be replayed
+ * and benchmarked on a desktop JVM.
+ *
+ * <p>Samples missing from the log are not made up: the rings are marked discontinuous before the
+ * block that follows them, as the capture does when it loses audio.
+ */
+public class ReplaySource implements Closeable {
+    /** Called after every block, on the replay thread, once the rings have been updated. */
+    interface BlockListener {
+        void onBlock(long stereoPosition, long timestampNanos);
+    }
+
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channels;
+    private final boolean fixedPoint;
+    private final ByteBuffer blockHeader;
+    private long gaps;
+    private ByteBuffer payload = ByteBuffer.allocate(0);
+    private float[] floatBlock = new float[0];
+    private short[] shortBlock = new short[0];
+
+    ReplaySource(File file) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(SessionRecorder.HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            readFully(header);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        int version = header.getInt() == SessionRecorder.MAGIC ? header.getInt() : 0;
+        if (version != SessionRecorder.VERSION) {
+            channel.close();
+            throw new IOException("Not a session log: " + file);
+        }
+        blockHeader = ByteBuffer.allocate(SessionRecorder.BLOCK_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        sampleRate = header.getInt();
+        channels = header.getInt();
+        fixedPoint = header.getInt() == 2;
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    /** Number of places where the replayed blocks so far had samples missing before them. */
+    long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * Feeds every remaining block of the log into the rings.
+     *
+     * @param realTime Wait between blocks as long as the capture did, rather than running at
+     *     maximum speed.
+     * @param listener Notified after each block, may be null.
+     * @return Number of blocks replayed.
+     */
+    long replay(CaptureRings rings, boolean realTime, BlockListener listener)
+            throws IOException, InterruptedException {
+        if (rings.isFixedPoint() != fixedPoint) {
+            throw new IllegalArgumentException("Sample format does not match the log");
+        }
+
+        long blocks = 0;
+        long firstTimestamp = 0;
+        long startNanos = System.nanoTime();
+        while (true) {
+            blockHeader.clear();
+            long timestamp;
+            int samples;
+            int gapSamples;
+            try {
+                readFully(blockHeader);
+                timestamp = blockHeader.getLong();
+                samples = blockHeader.getInt();
+                gapSamples = blockHeader.getInt();
+                readPayload(samples);
+            } catch (EOFException e) {
+                // A truncated last block is expected if the recording was not closed cleanly
+                return blocks;
+            }
+
+            if (blocks == 0) {
+                firstTimestamp = timestamp;
+            }
+            if (realTime) {
+                long delay = (timestamp - firstTimestamp) - (System.nanoTime() - startNanos);
+                if (delay > 0) {
+                    Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+                }
+            }
+
+            if (gapSamples > 0) {
+                rings.markDiscontinuity();
+                gaps++;
+            }
+
+            // Stamped with the replay time, so that latencies are measured from the replay
+            if (fixedPoint) {
+                payload.asShortBuffer().get(shortBlock, 0, samples);
+                rings.write(shortBlock, samples, System.nanoTime());
+            } else {
+                payload.asFloatBuffer().get(floatBlock, 0, samples);
+                rings.write(floatBlock, samples, System.nanoTime());
+            }
+            blocks++;
+
+            if (listener != null) {
+                listener.onBlock(rings.getStereo().getLatest(), timestamp);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readPayload(int samples) throws IOException {
+        int bytes = samples * (fixedPoint ? 2 : 4);
+        // Grow the buffers on the first blocks only, blocks have a fixed maximum size
+        if (payload.capacity() < bytes) {
+            payload = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            floatBlock = new float[fixedPoint ? 0 : samples];
+            shortBlock = new short[fixedPoint ? samples : 0];
+        }
+        payload.clear();
+        payload.limit(bytes);
+        readFully(payload);
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,124 @@
+package com.ginkage.bpmdetect;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Position bookkeeping of the circular buffers, whatever the sample format they store: what was
+ * written, what a read may have lost to the writer, when each block was captured and where the
+ * audio had gaps.
+ *
+ * <p>Lock-free for a single writer and a single reader. A reader that falls behind by a whole
+ * buffer notices it after its copy and starts again. When it waits for new values, it parks and
+ * the writer unparks it once enough were written, so that the capture thread never takes a lock.
+ */
+abstract class RingPositions implements SampleBuffer {
+    final int size; // Maximum number of values to store
+    private volatile long totalWritten = 0; // Published after the values
+    private volatile long writeEnd = 0; // Position after the block being written, if any
+    private volatile long retriedReads = 0;
+    private final WriteStamps stamps = new WriteStamps();
+    private volatile long discontinuity = -1;
+    private final AtomicReference<Thread> waiter = new AtomicReference<>();
+    private volatile long awaited = Long.MAX_VALUE;
+
+    RingPositions(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Called by the writer before it stores {@code n} values, which readers must then consider
+     * overwritten. Returns the index of the first one in the storage.
+     */
+    int beginWrite(int n) {
+        long start = totalWritten;
+        writeEnd = start + n;
+        return (int) (start % size);
+    }
+
+    /** Called by the writer after it stored the values, to publish them. */
+    void endWrite(int n, long timestampNanos) {
+        long end = totalWritten + n;
+        stamps.add(end, timestampNanos);
+        totalWritten = end;
+
+        // Wake up the reader waiting for new data, if it has enough
+        if (end >= awaited) {
+            Thread thread = waiter.get();
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /** First position a read from {@code from} can copy, past the values already overwritten. */
+    long readStart(long from) {
+        return Math.max(from, getOldest());
+    }
+
+    /**
+     * Returns the position just after the {@code n} values copied from {@code from}, or -1 if
+     * the writer came around and overwrote some of them meanwhile.
+     */
+    long readEnd(long from, int n) {
+        if (from < getOldest()) {
+            retriedReads++;
+            return -1;
+        }
+        return from + n;
+    }
+
+    // Oldest value that no write, even one in progress, has touched
+    private long getOldest() {
+        return Math.max(0, writeEnd - size);
+    }
+
+    @Override
+    public long getTimestamp(long position) {
+        return stamps.lookup(position);
+    }
+
+    // Called by the writer when audio was lost before the next values
+    void markDiscontinuity() {
+        discontinuity = totalWritten;
+    }
+
+    @Override
+    public long getDiscontinuity() { return discontinuity; }
+
+    @Override
+    public long getRetriedReads() { return retriedReads; }
+
+    @Override
+    public long getLatest() { return totalWritten; }
+
+    @Override
+    public boolean awaitWritten(long position, long timeoutMillis) throws InterruptedException {
+        if (totalWritten >= position) {
+            return true;
+        }
+        Thread thread = Thread.currentThread();
+        if (!waiter.compareAndSet(null, thread)) {
+            throw new IllegalStateException("Another reader is waiting");
+        }
+        try {
+            awaited = position;
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+            // Checked after publishing the wait, so that the writer cannot miss it
+            while (totalWritten < position) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        } finally {
+            awaited = Long.MAX_VALUE;
+            waiter.set(null);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ginkage.bpmdetect;
+
+// Read side of a circular buffer, regardless of the sample format it stores.
+public interface SampleBuffer {
+    // Retrieve latest samples as floats in [-1, 1]
+    long read(float[] values, int n);
+
+    // Retrieve samples from {from} on as floats, or from the oldest one left if it was overwritten.
+    // Returns the position just after them.
+    long readAt(long from, float[] values, int n);
+
+    long getLatest();
+
+    // System.nanoTime() at which the value just before {position} was captured, -1 if unknown
+    long getTimestamp(long position);
+
+    // Position of the latest gap in the captured audio, -1 if there was none
+    long getDiscontinuity();
+
+    // Reads started again because the writer overwrote the values while they were copied
+    long getRetriedReads();
+
+    // Block until at least {position} values have been written, false on timeout
+    boolean awaitWritten(long position, long timeoutMillis) throws InterruptedException;
+
+    // Size of the backing storage
+    long getMemoryBytes();
+}
@@ -0,0 +1,186 @@
+package com.ginkage.bpmdetect;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the captured blocks to a compact log that {@link ReplaySource} can play back.
+ *
+ * <p>The capture thread only copies each block into a preallocated slot and never blocks: when
+ * the background writer falls behind and no slot is free, the block is dropped and counted, and
+ * the next recorded block carries the number of samples missing before it, along with those the
+ * capture itself lost.
+ *
+ * <p>File layout (little-endian): a header of magic, version, sample rate, channels and bytes
+ * per sample (4 for float, 2 for 16-bit PCM), then for every block its capture time in
+ * nanoseconds, its sample count, the number of samples missing before it and the interleaved
+ * samples.
+ */
+public class SessionRecorder {
+    static final int MAGIC = 0x524d5042; // "BPMR"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 20;
+    static final int BLOCK_HEADER_BYTES = 16;
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private static class Slot {
+        final ByteBuffer bytes;
+        // Views of the payload after the block header, created once
+        final FloatBuffer floats;
+        final ShortBuffer shorts;
+
+        Slot(int capacity) {
+            bytes = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.position(BLOCK_HEADER_BYTES);
+            ByteBuffer payload = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+            floats = payload.asFloatBuffer();
+            shorts = payload.asShortBuffer();
+            bytes.clear();
+        }
+    }
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final ArrayBlockingQueue<Slot> free;
+    private final ArrayBlockingQueue<Slot> filled;
+    private final Thread writer;
+    private volatile boolean isRunning = true;
+    private volatile long droppedBlocks;
+    // Samples dropped since the last recorded block, only touched by the capture thread
+    private long gapSamples;
+    private volatile IOException writeError;
+
+    /**
+     * @param blockSize Maximum number of samples per recorded block.
+     * @param slots Number of blocks that can wait for the writer.
+     */
+    SessionRecorder(File file, int sampleRate, int channels, boolean fixedPoint, int blockSize,
+            int slots) throws IOException {
+        this.blockSize = blockSize;
+        int bytesPerSample = fixedPoint ? 2 : 4;
+
+        channel = new FileOutputStream(file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(channels)
+                .putInt(bytesPerSample);
+        header.flip();
+        try {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        free = new ArrayBlockingQueue<>(slots);
+        filled = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) {
+            free.add(new Slot(BLOCK_HEADER_BYTES + blockSize * bytesPerSample));
+        }
+
+        writer = new Thread(this::writeLoop, "SessionRecorder");
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /** Queues a block of float samples, returns false if it had to be dropped. */
+    boolean record(float[] block, int samples, long timestampNanos) {
+        Slot slot = acquire(samples, timestampNanos);
+        if (slot == null) {
+            return false;
+        }
+        slot.floats.clear();
+        slot.floats.put(block, 0, samples);
+        return submit(slot, samples * 4);
+    }
+
+    /** Queues a block of 16-bit samples, returns false if it had to be dropped. */
+    boolean record(short[] block, int samples, long timestampNanos) {
+        Slot slot = acquire(samples, timestampNanos);
+        if (slot == null) {
+            return false;
+        }
+        slot.shorts.clear();
+        slot.shorts.put(block, 0, samples);
+        return submit(slot, samples * 2);
+    }
+
+    /**
+     * Notes that the capture lost this many samples before the next block, which then carries
+     * them along with the ones dropped here. Called from the capture thread.
+     */
+    void markGap(long samples) {
+        gapSamples += samples;
+    }
+
+    long getDroppedBlocks() {
+        return droppedBlocks;
+    }
+
+    /** Writes out the queued blocks and closes the file. */
+    void close() throws IOException {
+        isRunning = false;
+        boolean retry = true;
+        while (retry) {
+            try {
+                writer.join();
+                retry = false;
+            } catch (InterruptedException e) {
+                // Keep waiting, the file must not be closed under the writer
+            }
+        }
+        channel.close();
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    private Slot acquire(int samples, long timestampNanos) {
+        Slot slot = samples <= blockSize ? free.poll() : null;
+        if (slot == null) {
+            droppedBlocks++;
+            gapSamples += samples;
+            return null;
+        }
+        slot.bytes.clear();
+        slot.bytes.putLong(timestampNanos).putInt(samples)
+                .putInt((int) Math.min(gapSamples, Integer.MAX_VALUE));
+        gapSamples = 0;
+        return slot;
+    }
+
+    private boolean submit(Slot slot, int payloadBytes) {
+        slot.bytes.limit(BLOCK_HEADER_BYTES + payloadBytes);
+        slot.bytes.position(0);
+        // Cannot fail: there are as many places in the queue as there are slots
+        return filled.offer(slot);
+    }
+
+    private void writeLoop() {
+        try {
+            while (isRunning || !filled.isEmpty()) {
+                Slot slot = filled.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (slot != null) {
+                    while (slot.bytes.hasRemaining()) {
+                        channel.write(slot.bytes);
+                    }
+                    free.add(slot);
+                }
+            }
+        } catch (IOException e) {
+            writeError = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.ginkage.bpmdetect;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+// 16-bit PCM version of CircularBuffer, half the size for the same number of samples.
+public class ShortCircularBuffer extends RingPositions {
+    private static final float SCALE = 1.0f / 32768.0f;
+
+    private final ShortBuffer buffer; // Backing storage, on or off the Java heap
+    private final ShortBuffer writeView; // Separate positions for the writer...
+    private final ShortBuffer readView; // ...and the reader
+
+    ShortCircularBuffer(final int size) {
+        this(size, false);
+    }
+
+    ShortCircularBuffer(final int size, boolean direct) {
+        super(size);
+        buffer = direct
+                ? ByteBuffer.allocateDirect(size * 2).order(ByteOrder.nativeOrder()).asShortBuffer()
+                : ShortBuffer.wrap(new short[size]);
+        writeView = buffer.duplicate();
+        readView = buffer.duplicate();
+    }
+
+    // Replace oldest samples in the circular buffer with input values, captured now
+    void write(short[] values, int n)
+    {
+        write(values, n, System.nanoTime());
+    }
+
+    // Same as above, with the System.nanoTime() at which the values were captured
+    void write(short[] values, int n, long timestampNanos)
+    {
+        // Write {n} values to the buffer, *then* change the current position
+        int pos = beginWrite(n);
+        for (int k, j = 0; j < n; j += k) {
+            k = Math.min(pos + (n - j), size) - pos;
+            writeView.position(pos);
+            writeView.put(values, j, k);
+            pos = (pos + k) % size;
+        }
+        endWrite(n, timestampNanos);
+    }
+
+    // Retrieve latest samples in the circular buffer
+    long read(short[] values, int n) {
+        while (true) {
+            long end = copy(getLatest() - n, values, n);
+            if (end >= 0) {
+                return end;
+            }
+        }
+    }
+
+    // Retrieve samples at the specified position, or from the oldest one left
+    long readAt(long from, short[] values, int n) {
+        while (true) {
+            long end = copy(from, values, n);
+            if (end >= 0) {
+                return end;
+            }
+        }
+    }
+
+    // Retrieve latest samples, converted to floats
+    @Override
+    public long read(float[] values, int n) {
+        while (true) {
+            long end = copy(getLatest() - n, values, n);
+            if (end >= 0) {
+                return end;
+            }
+        }
+    }
+
+    // Retrieve samples at the specified position, converted to floats
+    @Override
+    public long readAt(long from, float[] values, int n) {
+        while (true) {
+            long end = copy(from, values, n);
+            if (end >= 0) {
+                return end;
+            }
+        }
+    }
+
+    // Returns the position just after the copied values, or -1 if the writer came around and
+    // overwrote some of them meanwhile
+    private long copy(long from, short[] values, int n)
+    {
+        from = readStart(from);
+        int start = (int) (from % size);
+
+        for (int k, j = 0; j < n; j += k) {
+            k = Math.min(start + (n - j), size) - start;
+            readView.position(start);
+            readView.get(values, j, k);
+            start = (start + k) % size;
+        }
+
+        return readEnd(from, n);
+    }
+
+    // Same as above, converted to floats
+    private long copy(long from, float[] values, int n)
+    {
+        from = readStart(from);
+        int start = (int) (from % size);
+
+        for (int j = 0; j < n; j++) {
+            values[j] = readView.get(start) * SCALE;
+            if (++start == size) {
+                start = 0;
+            }
+        }
+
+        return readEnd(from, n);
+    }
+
+    @Override
+    public long getMemoryBytes() { return size * 2L; }
+}
@@ -0,0 +1,74 @@
+package com.ginkage.bpmdetect;
+
+import java.util.Locale;
+
+/**
+ * Tells whether the captured audio is silent, from the energy of each block.
+ *
+ * <p>The gate closes once the energy has stayed under the threshold for the hold time, so that
+ * quiet passages and short gaps between tracks do not interrupt the analysis, and opens again on
+ * the first block above it. Time is counted in captured frames, so that a replayed session gates
+ * exactly like the live one.
+ */
+public class SilenceGate {
+    // Mean square of a full-scale sine is 0.5, this is about -60 dBFS
+    private static final float THRESHOLD = 1e-6f;
+
+    private final int holdFrames;
+    private int quietFrames;
+    private volatile boolean silent;
+
+    // Statistics
+    private volatile long totalFrames;
+    private volatile long silentFrames;
+    private volatile long silentSpans;
+
+    /** @param holdFrames Frames under the threshold before the gate closes. */
+    SilenceGate(int holdFrames) {
+        this.holdFrames = holdFrames;
+    }
+
+    /**
+     * Updates the gate with the next captured block.
+     *
+     * @param meanSquare Mean square of the block samples, where 1.0 is full scale.
+     * @param frames Number of frames in the block.
+     */
+    void update(float meanSquare, int frames) {
+        if (meanSquare < THRESHOLD) {
+            quietFrames += frames;
+            if (!silent && quietFrames >= holdFrames) {
+                silent = true;
+                silentSpans++;
+            }
+        } else {
+            quietFrames = 0;
+            silent = false;
+        }
+
+        totalFrames += frames;
+        if (silent) {
+            silentFrames += frames;
+        }
+    }
+
+    boolean isSilent() {
+        return silent;
+    }
+
+    long getSilentSpans() {
+        return silentSpans;
+    }
+
+    /** Fraction of the captured audio that was gated out. */
+    float getSilentFraction() {
+        long total = totalFrames;
+        return total > 0 ? (float) silentFrames / total : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.0f%% silent in %d spans",
+                getSilentFraction() * 100, silentSpans);
+    }
+}
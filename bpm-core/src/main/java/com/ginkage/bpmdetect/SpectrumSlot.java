@@ -0,0 +1,65 @@
+package com.ginkage.bpmdetect;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free hand-over of the latest spectrum from a single producer to a single consumer.
+ *
+ * <p>Three frames rotate between the producer (back), the slot (middle) and the consumer (front):
+ * the producer fills its back frame and swaps it with the middle one, the consumer swaps its front
+ * frame with the middle one when the latter is newer. Neither side ever waits for the other, and
+ * frames that the consumer did not get to are simply overwritten.
+ */
+public class SpectrumSlot {
+    static class Frame {
+        final float[] magnitudes;
+        volatile long sequence; // Also read by the consumer while in the middle
+        long position; // Stream position just after the analyzed window
+        long captureNanos; // System.nanoTime() at which that position was captured, or -1
+        boolean silent;
+
+        Frame(int size) {
+            magnitudes = new float[size];
+        }
+    }
+
+    private final AtomicReference<Frame> middle;
+    private Frame back;
+    private Frame front;
+    private long sequence;
+
+    SpectrumSlot(int size) {
+        back = new Frame(size);
+        middle = new AtomicReference<>(new Frame(size));
+        front = new Frame(size);
+    }
+
+    /** Producer side: the frame to fill before calling {@link #publish}. */
+    Frame getBack() {
+        return back;
+    }
+
+    /** Producer side: makes the back frame the latest one. */
+    void publish(long position, long captureNanos, boolean silent) {
+        back.sequence = ++sequence;
+        back.position = position;
+        back.captureNanos = captureNanos;
+        back.silent = silent;
+        back = middle.getAndSet(back);
+    }
+
+    /** Consumer side: takes the latest frame if it is newer, returns false if nothing changed. */
+    boolean update() {
+        if (middle.get().sequence <= front.sequence) {
+            return false;
+        }
+        // Only the producer can have replaced the middle frame meanwhile, with an even newer one
+        front = middle.getAndSet(front);
+        return true;
+    }
+
+    /** Consumer side: the latest frame taken by {@link #update}, sequence 0 if none yet. */
+    Frame getFront() {
+        return front;
+    }
+}
@@ -0,0 +1,116 @@
+package com.ginkage.bpmdetect;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Computes the spectrum bars of the latest stereo window and publishes them through a
+ * {@link SpectrumSlot}, so that the render thread only has to draw them.
+ *
+ * <p>Magnitudes are in sine amplitudes, i.e. a full scale sine gives 1 in its bin, for both the
+ * note spectrum (one value per bin) and the FFT (one value per FFT bin in [minK, maxK)).
+ */
+public class SpectrumStage {
+    private final SampleBuffer samples;
+    private final SilenceGate gate;
+    private final FreqData freq;
+    private final FftData fft;
+    private final float fftScale;
+    private final NoteSpectrum noteSpectrum;
+    private final SpectrumSlot slot;
+    private final int windowSamples;
+    private final FrameStats computeStats = new FrameStats();
+    private boolean silencePublished;
+
+    /**
+     * @param samples Interleaved stereo samples.
+     * @param gate Skips the computation while the audio is silent, may be null.
+     * @param freq Bins to compute.
+     * @param windowSize Number of frames per FFT, also the most frames fed to the note spectrum
+     *     per update.
+     * @param noteSpectrum Compute the constant-Q note spectrum instead of the FFT.
+     */
+    SpectrumStage(SampleBuffer samples, SilenceGate gate, FreqData freq, int sampleRate,
+            int windowSize, boolean noteSpectrum) {
+        this.samples = samples;
+        this.gate = gate;
+        this.freq = freq;
+        this.windowSamples = windowSize * 2;
+        if (noteSpectrum) {
+            this.fft = null;
+            this.noteSpectrum = new NoteSpectrum(samples, windowSamples, sampleRate,
+                    FreqData.MIN_NOTE, FreqData.MAX_NOTE, freq.binsPerNote);
+            this.slot = new SpectrumSlot(freq.binNote.length);
+        } else {
+            this.fft = new FftData(windowSize, samples);
+            this.noteSpectrum = null;
+            this.slot = new SpectrumSlot(freq.maxK - freq.minK);
+        }
+        // A sine gives windowSize / sqrt(2) in the FFT of the stereo pairs
+        this.fftScale = (float) (Math.sqrt(2) / windowSize);
+    }
+
+    SpectrumSlot getSlot() {
+        return slot;
+    }
+
+    boolean isNoteSpectrum() {
+        return noteSpectrum != null;
+    }
+
+    /**
+     * Computes and publishes the spectrum of the latest window. While the audio is silent, only
+     * publishes a single silent frame.
+     *
+     * @return Whether a frame was published.
+     */
+    boolean process() {
+        if (samples.getLatest() < windowSamples) {
+            return false;
+        }
+        if (gate != null && gate.isSilent()) {
+            if (silencePublished) {
+                return false;
+            }
+            long position = samples.getLatest();
+            slot.publish(position, samples.getTimestamp(position), true);
+            silencePublished = true;
+            return true;
+        }
+        silencePublished = false;
+
+        long start = System.nanoTime();
+        long traceStart = Tracer.begin();
+        float[] magnitudes = slot.getBack().magnitudes;
+        long position;
+        if (noteSpectrum != null) {
+            FloatBuffer data = noteSpectrum.execute();
+            data.rewind();
+            data.get(magnitudes);
+            position = noteSpectrum.getPosition();
+        } else {
+            float[] data = fft.execute();
+            for (int k = freq.minK, t = k * 2; k < freq.maxK; k++) {
+                float re = data[t++];
+                float im = data[t++];
+                magnitudes[k - freq.minK] = (float) Math.sqrt(re * re + im * im) * fftScale;
+            }
+            position = fft.getPosition();
+        }
+        computeStats.add(System.nanoTime() - start);
+        Tracer.end("spectrum", traceStart, position / 2); // Stereo samples to frames
+
+        slot.publish(position, samples.getTimestamp(position), false);
+        return true;
+    }
+
+    void destroy() {
+        if (noteSpectrum != null) {
+            noteSpectrum.destroy();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (noteSpectrum != null ? "Note spectrum: " : "FFT: ") + computeStats;
+    }
+}
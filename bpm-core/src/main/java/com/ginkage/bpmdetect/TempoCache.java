@@ -0,0 +1,139 @@
+package com.ginkage.bpmdetect;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of settled tempos, keyed by the envelope fingerprint reported by the native
+ * detector. Fingerprints of the same track differ in a few bits between plays, so lookups accept
+ * the closest entry within a small Hamming distance.
+ */
+public class TempoCache {
+    // Version 2: fingerprints carry the spectral balance, version 1 entries would never match
+    private static final int FILE_VERSION = 2;
+    // Version and count, then a fingerprint and a tempo per entry
+    private static final int HEADER_BYTES = 8;
+    private static final int FILE_ENTRY_BYTES = 12;
+    private static final int MAX_DISTANCE = 6;
+    // Rough per-entry heap cost: map node, boxed key and value
+    private static final int ENTRY_BYTES = 80;
+
+    private final int capacity;
+    private final LinkedHashMap<Long, Float> entries;
+
+    private long hits;
+    private long misses;
+    private long lookupNanos;
+
+    TempoCache(final int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Long, Float>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Float> eldest) {
+                return size() > TempoCache.this.capacity;
+            }
+        };
+    }
+
+    /** Returns the cached tempo closest to the fingerprint, or NaN if there is none. */
+    synchronized float lookup(long fingerprint) {
+        long start = System.nanoTime();
+        Long bestKey = null;
+        int bestDistance = MAX_DISTANCE + 1;
+        for (Long key : entries.keySet()) {
+            int distance = Long.bitCount(key ^ fingerprint);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestKey = key;
+            }
+        }
+
+        // Refresh the LRU order only after the scan, so that the iteration stays valid
+        float bpm = bestKey != null ? entries.get(bestKey) : Float.NaN;
+        if (bestKey != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        lookupNanos += System.nanoTime() - start;
+        return bpm;
+    }
+
+    synchronized void put(long fingerprint, float bpm) {
+        entries.put(fingerprint, bpm);
+    }
+
+    /**
+     * Adds the entries saved in the file, older than the ones already cached. A file of another
+     * version is ignored, a truncated or corrupt one leaves the cache as it was.
+     */
+    void load(File file) throws IOException {
+        long[] fingerprints;
+        float[] tempos;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            if (count < 0 || HEADER_BYTES + (long) count * FILE_ENTRY_BYTES != file.length()) {
+                throw new IOException("Corrupt tempo cache: " + count + " entries in "
+                        + file.length() + " bytes");
+            }
+            fingerprints = new long[count];
+            tempos = new float[count];
+            for (int i = 0; i < fingerprints.length; i++) {
+                fingerprints[i] = in.readLong();
+                tempos[i] = in.readFloat();
+            }
+        }
+
+        synchronized (this) {
+            // Loading may finish after the first tempos were put, which must stay the newest
+            Map<Long, Float> current = new LinkedHashMap<>(entries);
+            entries.clear();
+            for (int i = 0; i < fingerprints.length; i++) {
+                entries.put(fingerprints[i], tempos[i]);
+            }
+            entries.putAll(current);
+        }
+    }
+
+    synchronized void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+            // Oldest first, so that loading restores the same LRU order
+            for (Map.Entry<Long, Float> entry : entries.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeFloat(entry.getValue());
+            }
+        }
+    }
+
+    synchronized float getHitRate() {
+        long lookups = hits + misses;
+        return lookups > 0 ? (float) hits / lookups : 0;
+    }
+
+    synchronized long getAverageLookupNanos() {
+        long lookups = hits + misses;
+        return lookups > 0 ? lookupNanos / lookups : 0;
+    }
+
+    synchronized long getMemoryBytes() {
+        return (long) entries.size() * ENTRY_BYTES;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d entries (~%d bytes), hit rate %.2f, lookup %d ns",
+                entries.size(), getMemoryBytes(), getHitRate(), getAverageLookupNanos());
+    }
+}
@@ -0,0 +1,308 @@
+package com.ginkage.bpmdetect;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Tempo timeline of a whole session, summarized at several time resolutions.
+ *
+ * <p>Level 0 holds the minimum, maximum and median of the estimates within each second of stream
+ * time, and every further level merges {@link #FANOUT} buckets of the level below: the extremes
+ * stay exact, the median is the median of the children's medians. Each level is a fixed ring of
+ * {@link #CAPACITY} buckets, so the finest levels only keep the most recent part of a long session
+ * while the coarse ones cover all of it. A view of any length is drawn from the finest level that
+ * fits into the requested number of points, which bounds the work by that number.
+ *
+ * <p>Tempos are stored in hundredths of a BPM, 0 marks a bucket without estimates (e.g. in
+ * silence). Queries and exports include the buckets still open, summarized from the estimates
+ * they have so far. Appending never allocates.
+ *
+ * <p>Binary layout (little-endian): a header of magic, version, sample rate, frames per level 0
+ * bucket, fan-out and level count, then for every level its first bucket index, bucket count and
+ * the minimum, maximum and median of every bucket as unsigned 16-bit values.
+ */
+public class TempoHistory {
+    static final int MAGIC = 0x484d5042; // "BPMH"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final int LEVELS = 6;
+    static final int FANOUT = 4;
+    static final int CAPACITY = 16384;
+
+    // Estimates kept per level 0 bucket for its median, the adaptive hop delivers at most 20
+    private static final int MAX_ESTIMATES = 32;
+    private static final float SCALE = 100;
+
+    private static class Level {
+        final char[] min = new char[CAPACITY];
+        final char[] max = new char[CAPACITY];
+        final char[] median = new char[CAPACITY];
+        final float[] pending;
+        final long bucketFrames;
+        long current = -1; // Index of the bucket being filled
+        long count; // Buckets closed so far, gaps included
+        long end; // Buckets with a summary in their slot, including the open ones published
+        int pendingCount;
+        float pendingMin;
+        float pendingMax;
+
+        // The open bucket while a provisional summary is taken
+        private final float[] savedPending;
+        private long savedCurrent;
+        private long savedCount;
+        private int savedPendingCount;
+        private float savedPendingMin;
+        private float savedPendingMax;
+
+        Level(int pendingSize, long bucketFrames) {
+            pending = new float[pendingSize];
+            savedPending = new float[pendingSize];
+            this.bucketFrames = bucketFrames;
+        }
+
+        long getFirst() {
+            return Math.max(0, end - CAPACITY);
+        }
+
+        boolean isOpen() {
+            return current >= count;
+        }
+
+        void save() {
+            System.arraycopy(pending, 0, savedPending, 0, pendingCount);
+            savedCurrent = current;
+            savedCount = count;
+            savedPendingCount = pendingCount;
+            savedPendingMin = pendingMin;
+            savedPendingMax = pendingMax;
+        }
+
+        void restore() {
+            System.arraycopy(savedPending, 0, pending, 0, savedPendingCount);
+            current = savedCurrent;
+            count = savedCount;
+            pendingCount = savedPendingCount;
+            pendingMin = savedPendingMin;
+            pendingMax = savedPendingMax;
+        }
+    }
+
+    private final int sampleRate;
+    private final Level[] levels = new Level[LEVELS];
+    private long estimates;
+
+    TempoHistory(int sampleRate) {
+        this.sampleRate = sampleRate;
+        long bucketFrames = sampleRate;
+        for (int i = 0; i < LEVELS; i++) {
+            levels[i] = new Level(i == 0 ? MAX_ESTIMATES : FANOUT, bucketFrames);
+            bucketFrames *= FANOUT;
+        }
+    }
+
+    /** Appends the tempo estimated for the window ending at {@code position} (in frames). */
+    synchronized void add(long position, float bpm) {
+        if (!(bpm > 0)) {
+            return;
+        }
+        estimates++;
+        offer(0, position / levels[0].bucketFrames, bpm, bpm, bpm);
+    }
+
+    /**
+     * Fills the buckets covering the frames {@code [from, to)} at the finest level that needs at
+     * most {@code points} of them. Buckets without estimates are NaN.
+     *
+     * @return Number of buckets written, their length in frames is {@link #getBucketFrames}.
+     */
+    synchronized int query(long from, long to, int points, float[] min, float[] max,
+            float[] median) {
+        publishOpen();
+        int levelIndex = getLevel(from, to, points);
+        Level level = levels[levelIndex];
+        long first = Math.max(level.getFirst(), from / level.bucketFrames);
+        long last = Math.min(level.end, (to + level.bucketFrames - 1) / level.bucketFrames);
+        int n = (int) Math.max(0, Math.min(points, last - first));
+        for (int i = 0; i < n; i++) {
+            int slot = (int) ((first + i) % CAPACITY);
+            min[i] = toBpm(level.min[slot]);
+            max[i] = toBpm(level.max[slot]);
+            median[i] = toBpm(level.median[slot]);
+        }
+        return n;
+    }
+
+    /** The level {@link #query} reads for the same arguments. */
+    synchronized int getLevel(long from, long to, int points) {
+        for (int i = 0; i < LEVELS - 1; i++) {
+            Level level = levels[i];
+            // Finer levels may have lost the start of the range already
+            if ((to - from) / level.bucketFrames <= points
+                    && from / level.bucketFrames >= level.getFirst()) {
+                return i;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    long getBucketFrames(int level) {
+        return levels[level].bucketFrames;
+    }
+
+    /** Stream time covered by the closed level 0 buckets, in seconds. */
+    synchronized long getDurationSeconds() {
+        return levels[0].count * levels[0].bucketFrames / sampleRate;
+    }
+
+    /** Writes the level 0 buckets still held as CSV, one line per second with estimates. */
+    synchronized void exportCsv(File file) throws IOException {
+        publishOpen();
+        Level level = levels[0];
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("seconds,min,max,median\n");
+            for (long k = level.getFirst(); k < level.end; k++) {
+                int slot = (int) (k % CAPACITY);
+                if (level.median[slot] != 0) {
+                    out.write(String.format(Locale.US, "%d,%.2f,%.2f,%.2f\n",
+                            k * level.bucketFrames / sampleRate, toBpm(level.min[slot]),
+                            toBpm(level.max[slot]), toBpm(level.median[slot])));
+                }
+            }
+        }
+    }
+
+    /** Writes every level in the binary layout described above. */
+    synchronized void exportBinary(File file) throws IOException {
+        publishOpen();
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(sampleRate)
+                    .putInt((int) levels[0].bucketFrames).putInt(FANOUT).putInt(LEVELS);
+            header.flip();
+            channel.write(header);
+
+            ByteBuffer block =
+                    ByteBuffer.allocate(16 + CAPACITY * 6).order(ByteOrder.LITTLE_ENDIAN);
+            for (Level level : levels) {
+                long first = level.getFirst();
+                block.clear();
+                block.putLong(first).putLong(level.end - first);
+                for (long k = first; k < level.end; k++) {
+                    int slot = (int) (k % CAPACITY);
+                    block.putChar(level.min[slot]).putChar(level.max[slot])
+                            .putChar(level.median[slot]);
+                }
+                block.flip();
+                while (block.hasRemaining()) {
+                    channel.write(block);
+                }
+            }
+        }
+    }
+
+    /** Heap held by the history, fixed from the start: it does not grow with the session. */
+    long getMemoryBytes() {
+        // Pending estimates and their saved copies
+        return (long) LEVELS * CAPACITY * 3 * 2 + (MAX_ESTIMATES + (LEVELS - 1) * FANOUT) * 4 * 2;
+    }
+
+    /**
+     * Closes every open bucket as if the stream ended here, which writes their summaries into
+     * their slots and up the levels, then reopens them to carry on. The real summary overwrites
+     * the slots once the bucket closes.
+     */
+    private void publishOpen() {
+        for (Level level : levels) {
+            level.save();
+        }
+        for (int i = 0; i < LEVELS; i++) {
+            if (levels[i].isOpen()) {
+                close(i);
+            }
+        }
+        for (Level level : levels) {
+            level.restore();
+        }
+    }
+
+    private void offer(int index, long bucket, float min, float max, float median) {
+        Level level = levels[index];
+        if (bucket != level.current) {
+            if (bucket < level.current) {
+                // Replayed or restarted stream, fold it into the open bucket
+                bucket = level.current;
+            } else {
+                if (level.current >= 0) {
+                    close(index);
+                }
+                // Skip the buckets without estimates, at most a whole ring of them
+                long gap = bucket - level.count;
+                for (long k = Math.max(0, gap - CAPACITY); k < gap; k++) {
+                    int slot = (int) ((level.count + k) % CAPACITY);
+                    level.min[slot] = 0;
+                    level.max[slot] = 0;
+                    level.median[slot] = 0;
+                }
+                level.count = bucket;
+                level.end = Math.max(level.end, bucket);
+                level.current = bucket;
+                level.pendingCount = 0;
+                level.pendingMin = Float.MAX_VALUE;
+                level.pendingMax = 0;
+            }
+        }
+
+        level.pendingMin = Math.min(level.pendingMin, min);
+        level.pendingMax = Math.max(level.pendingMax, max);
+        if (level.pendingCount < level.pending.length) {
+            level.pending[level.pendingCount++] = median;
+        }
+    }
+
+    private void close(int index) {
+        Level level = levels[index];
+        Arrays.sort(level.pending, 0, level.pendingCount);
+        int mid = level.pendingCount / 2;
+        float median = level.pendingCount % 2 != 0 ? level.pending[mid]
+                : (level.pending[mid - 1] + level.pending[mid]) / 2;
+
+        int slot = (int) (level.current % CAPACITY);
+        level.min[slot] = toCenti(level.pendingMin);
+        level.max[slot] = toCenti(level.pendingMax);
+        level.median[slot] = toCenti(median);
+        level.count = level.current + 1;
+        level.end = Math.max(level.end, level.count);
+
+        if (index + 1 < LEVELS) {
+            offer(index + 1, level.current / FANOUT, level.pendingMin, level.pendingMax, median);
+        }
+    }
+
+    private static char toCenti(float bpm) {
+        return (char) Math.max(1, Math.min(Character.MAX_VALUE, Math.round(bpm * SCALE)));
+    }
+
+    private static float toBpm(char centi) {
+        return centi != 0 ? centi / SCALE : Float.NaN;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long seconds = getDurationSeconds();
+        return String.format(Locale.US,
+                "%d estimates over %d:%02d:%02d, %d KB, level 0 keeps the last %.1f h",
+                estimates, seconds / 3600, seconds / 60 % 60, seconds % 60,
+                getMemoryBytes() / 1024,
+                (double) CAPACITY * levels[0].bucketFrames / sampleRate / 3600);
+    }
+}
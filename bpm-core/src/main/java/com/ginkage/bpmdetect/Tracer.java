@@ -0,0 +1,154 @@
+package com.ginkage.bpmdetect;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory collector of spans, exported together with the native ones in the Chrome trace event
+ * format (chrome://tracing, Perfetto).
+ *
+ * <p>Every span carries the stream position (in frames) of the samples it worked on, so a window
+ * can be followed from the capture to the screen. Spans are kept in a ring, the oldest are
+ * overwritten once it is full. While tracing is off, {@link #begin} is a single volatile read and
+ * {@link #end} does nothing.
+ */
+public final class Tracer {
+    private static final int CAPACITY = 16384;
+
+    private static volatile boolean enabled;
+
+    private static final String[] names = new String[CAPACITY];
+    private static final long[] starts = new long[CAPACITY];
+    private static final long[] durations = new long[CAPACITY];
+    private static final long[] threads = new long[CAPACITY];
+    private static final long[] positions = new long[CAPACITY];
+    private static long count;
+    private static final Map<Long, String> threadNames = new HashMap<>();
+
+    // Kernel thread ids, the same as the native spans use
+    private static final ThreadLocal<Long> threadId = new ThreadLocal<Long>() {
+        @Override
+        protected Long initialValue() {
+            long tid = nativeGetThreadId();
+            synchronized (Tracer.class) {
+                threadNames.put(tid, Thread.currentThread().getName());
+            }
+            return tid;
+        }
+    };
+
+    static {
+        System.loadLibrary("bpm_detect_jni");
+    }
+
+    private Tracer() {}
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean on) {
+        enabled = on;
+        nativeSetEnabled(on);
+    }
+
+    /** Start time of a span to pass to {@link #end}, or 0 if tracing is off. */
+    static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a span from {@code startNanos} until now, if it was started with tracing on.
+     *
+     * @param position Stream position in frames, -1 if none.
+     */
+    static void end(String name, long startNanos, long position) {
+        if (startNanos != 0) {
+            span(name, startNanos, System.nanoTime(), position);
+        }
+    }
+
+    /** Records a span with explicit times, e.g. from the capture of a sample to its display. */
+    static void span(String name, long startNanos, long endNanos, long position) {
+        long tid = threadId.get();
+        synchronized (Tracer.class) {
+            int i = (int) (count++ % CAPACITY);
+            names[i] = name;
+            starts[i] = startNanos;
+            durations[i] = endNanos - startNanos;
+            threads[i] = tid;
+            positions[i] = position;
+        }
+    }
+
+    /** Writes the Java and native spans recorded so far to a JSON trace, and clears them. */
+    static void export(File file) throws IOException {
+        String nativeEvents = nativeExportEvents();
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("{\"traceEvents\":[");
+            boolean first = true;
+            synchronized (Tracer.class) {
+                for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+                    out.write(first ? "" : ",");
+                    out.write(String.format(Locale.US,
+                            "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,"
+                                    + "\"args\":{\"name\":\"%s\"}}",
+                            thread.getKey(), escape(thread.getValue())));
+                    first = false;
+                }
+
+                for (long k = Math.max(0, count - CAPACITY); k < count; k++) {
+                    int i = (int) (k % CAPACITY);
+                    out.write(first ? "" : ",");
+                    out.write(String.format(Locale.US,
+                            "{\"name\":\"%s\",\"cat\":\"java\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,"
+                                    + "\"ts\":%.3f,\"dur\":%.3f",
+                            escape(names[i]), threads[i], starts[i] / 1000.0,
+                            durations[i] / 1000.0));
+                    if (positions[i] >= 0) {
+                        out.write(",\"args\":{\"position\":" + positions[i] + "}");
+                    }
+                    out.write("}");
+                    first = false;
+                }
+                count = 0;
+            }
+
+            if (!nativeEvents.isEmpty()) {
+                out.write(first ? "" : ",");
+                out.write(nativeEvents);
+            }
+            out.write("],\"displayTimeUnit\":\"ms\"}");
+        }
+    }
+
+    // Thread names are up to the app, keep them from breaking the JSON strings
+    private static String escape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static native void nativeSetEnabled(boolean enabled);
+
+    private static native long nativeGetThreadId();
+
+    private static native String nativeExportEvents();
+}
@@ -0,0 +1,44 @@
+package com.ginkage.bpmdetect;
+
+/**
+ * Capture times of the last blocks written to a ring buffer, to find out when a given sample
+ * arrived. Lock-free for a single writer: readers only look at the recent blocks, which the
+ * writer does not overwrite.
+ */
+class WriteStamps {
+    static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    // Blocks the writer may be about to overwrite while a reader looks at them
+    static final int MARGIN = 16;
+
+    private final long[] ends = new long[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private volatile long count;
+
+    /** Called by the writer after writing the block that ends at {@code end}. */
+    void add(long end, long nanos) {
+        int i = (int) (count & MASK);
+        ends[i] = end;
+        times[i] = nanos;
+        count = count + 1;
+    }
+
+    /**
+     * Returns the capture time of the block that holds the sample just before {@code position},
+     * or -1 if that block is no longer (or not yet) known.
+     */
+    long lookup(long position) {
+        long n = count;
+        long oldest = Math.max(0, n - CAPACITY + MARGIN);
+        long time = -1;
+        for (long k = n - 1; k >= oldest; k--) {
+            int i = (int) (k & MASK);
+            if (ends[i] < position) {
+                return time;
+            }
+            time = times[i];
+        }
+        // Past the oldest readable block, the sample may be in one that was overwritten
+        return oldest == 0 ? time : -1;
+    }
+}
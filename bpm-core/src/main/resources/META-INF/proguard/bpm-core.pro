@@ -0,0 +1,6 @@
+# Methods called from the native code
+-keepclasseswithmembers class com.ginkage.bpmdetect.BpmDetect {
+    void onCreate(float[]);
+    void onProcess(float[], float, float, float, long, long);
+    void onBands(float[], float[], float[]);
+}
@@ -0,0 +1,42 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureRingsTest {
+    private static final float[] STEREO = {0.3f, 0.4f, -0.3f, -0.4f, 0.5f, -0.5f};
+
+    private static float[] readMono(CaptureRings rings, int n) {
+        float[] out = new float[n];
+        rings.getMono().read(out, n);
+        return out;
+    }
+
+    @Test
+    public void mono_holdsTheAmplitudes() {
+        CaptureRings rings = new CaptureRings(16, 16, false, false, 48000);
+        rings.write(STEREO.clone(), STEREO.length, 0);
+
+        assertArrayEquals(new float[] {0.5f, 0.5f, 0.70710677f}, readMono(rings, 3), 1e-6f);
+    }
+
+    @Test
+    public void mono_holdsTheSignedMix() {
+        CaptureRings rings = new CaptureRings(16, 16, false, false, 48000, true);
+        rings.write(STEREO.clone(), STEREO.length, 0);
+
+        assertArrayEquals(new float[] {0.35f, -0.35f, 0}, readMono(rings, 3), 1e-6f);
+    }
+
+    @Test
+    public void mono_holdsTheSignedMixIn16Bits() {
+        CaptureRings rings = new CaptureRings(16, 16, true, false, 48000, true);
+        short[] stereo = {16384, 8192, -16384, -8192, 32767, 32767, -32768, -32768};
+        rings.write(stereo, stereo.length, 0);
+
+        short[] out = new short[4];
+        ((ShortCircularBuffer) rings.getMono()).read(out, 4);
+        assertArrayEquals(new short[] {12288, -12288, 32767, -32768}, out);
+    }
+}
@@ -0,0 +1,172 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircularBufferTest {
+    private static float[] ramp(int from, int n) {
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = from + i;
+        }
+        return values;
+    }
+
+    @Test
+    public void read_returnsLatestValues() {
+        CircularBuffer buffer = new CircularBuffer(16);
+        buffer.write(ramp(0, 10), 10);
+
+        float[] out = new float[4];
+        assertEquals(10, buffer.read(out, 4));
+        assertArrayEquals(ramp(6, 4), out, 0);
+        assertEquals(10, buffer.getLatest());
+    }
+
+    @Test
+    public void read_acrossTheEnd() {
+        for (boolean direct : new boolean[] {false, true}) {
+            CircularBuffer buffer = new CircularBuffer(16, direct);
+            for (int i = 0; i < 5; i++) {
+                buffer.write(ramp(i * 7, 7), 7);
+            }
+
+            float[] out = new float[12];
+            assertEquals(35, buffer.read(out, 12));
+            assertArrayEquals(ramp(23, 12), out, 0);
+        }
+    }
+
+    @Test
+    public void readAt_returnsValuesFromPosition() {
+        CircularBuffer buffer = new CircularBuffer(16);
+        buffer.write(ramp(0, 12), 12);
+
+        float[] out = new float[5];
+        assertEquals(8, buffer.readAt(3, out, 5));
+        assertArrayEquals(ramp(3, 5), out, 0);
+    }
+
+    @Test
+    public void readAt_startsFromTheOldestValueLeft() {
+        CircularBuffer buffer = new CircularBuffer(16);
+        for (int i = 0; i < 4; i++) {
+            buffer.write(ramp(i * 8, 8), 8);
+        }
+
+        float[] out = new float[4];
+        assertEquals(20, buffer.readAt(0, out, 4));
+        assertArrayEquals(ramp(16, 4), out, 0);
+    }
+
+    @Test
+    public void read_neverReturnsOverwrittenValues() throws InterruptedException {
+        final int block = 64;
+        final int blocks = 50000;
+        final CircularBuffer buffer = new CircularBuffer(1024);
+        Thread writer = new Thread(() -> {
+            float[] values = new float[block];
+            for (int i = 0; i < blocks; i++) {
+                for (int j = 0; j < block; j++) {
+                    values[j] = i * block + j;
+                }
+                buffer.write(values, block);
+            }
+        });
+        writer.start();
+
+        // Read almost the whole buffer, so that the writer often comes around during the copy
+        float[] out = new float[1024 - block];
+        assertTrue(buffer.awaitWritten(out.length, 1000));
+        while (writer.isAlive()) {
+            long end = buffer.read(out, out.length);
+            for (int i = 0; i < out.length; i++) {
+                if (out[i] != end - out.length + i) {
+                    fail("Torn read at " + (end - out.length + i) + ": " + out[i]);
+                }
+            }
+        }
+        writer.join();
+    }
+
+    @Test
+    public void getTimestamp_findsTheBlock() {
+        CircularBuffer buffer = new CircularBuffer(64);
+        buffer.write(ramp(0, 8), 8, 1000);
+        buffer.write(ramp(8, 8), 8, 2000);
+
+        assertEquals(1000, buffer.getTimestamp(8));
+        assertEquals(2000, buffer.getTimestamp(9));
+        assertEquals(2000, buffer.getTimestamp(16));
+        assertEquals(-1, buffer.getTimestamp(17));
+    }
+
+    @Test
+    public void awaitWritten_timesOutWithoutWriter() throws InterruptedException {
+        CircularBuffer buffer = new CircularBuffer(16);
+        buffer.write(ramp(0, 4), 4);
+
+        assertTrue(buffer.awaitWritten(4, 0));
+        assertFalse(buffer.awaitWritten(5, 10));
+    }
+
+    @Test
+    public void awaitWritten_wakesUpOnWrite() throws InterruptedException {
+        final CircularBuffer buffer = new CircularBuffer(16);
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                return;
+            }
+            buffer.write(ramp(0, 4), 4);
+            buffer.write(ramp(4, 4), 4);
+        });
+        writer.start();
+
+        assertTrue(buffer.awaitWritten(8, 10000));
+        assertEquals(8, buffer.getLatest());
+        writer.join();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void awaitWritten_rejectsASecondReader() throws InterruptedException {
+        final CircularBuffer buffer = new CircularBuffer(16);
+        Thread reader = new Thread(() -> {
+            try {
+                buffer.awaitWritten(1, 10000);
+            } catch (InterruptedException e) {
+                // Expected
+            }
+        });
+        reader.start();
+        while (reader.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+
+        try {
+            buffer.awaitWritten(1, 10);
+        } finally {
+            reader.interrupt();
+            reader.join();
+        }
+    }
+
+    @Test
+    public void shortBuffer_readsScaledFloats() {
+        ShortCircularBuffer buffer = new ShortCircularBuffer(8);
+        buffer.write(new short[] {0, 16384, -16384, 32767, -32768}, 5);
+        buffer.write(new short[] {1, 2, 3, 4, 5}, 5);
+
+        float[] out = new float[6];
+        assertEquals(10, buffer.read(out, 6));
+        assertArrayEquals(new float[] {
+                -1, 1 / 32768.0f, 2 / 32768.0f, 3 / 32768.0f, 4 / 32768.0f, 5 / 32768.0f,
+        }, out, 0);
+
+        short[] raw = new short[3];
+        assertEquals(5, buffer.readAt(2, raw, 3));
+        assertArrayEquals(new short[] {-16384, 32767, -32768}, raw);
+    }
+}
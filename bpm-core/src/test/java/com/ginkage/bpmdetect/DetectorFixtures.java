@@ -0,0 +1,42 @@
+package com.ginkage.bpmdetect;
+
+/**
+ * Callbacks and rings shared by the tests and benchmarks that run a detector on a SyntheticLoop.
+ */
+final class DetectorFixtures {
+    /** Ring room beyond the analyzed window, for the blocks written while a window is read. */
+    static final int RING_SLACK = 4096;
+
+    /** Callback for the detectors whose estimates do not matter. */
+    static final BpmDetect.BpmCallback IGNORE = new BpmDetect.BpmCallback() {
+        @Override
+        public void onCreate(float[] xAxis) {}
+
+        @Override
+        public void onProcess(float[] yAxis, float bpm, long position, long captureNanos) {}
+    };
+
+    /** Keeps the latest estimate, and how many there were. */
+    static class LastTempo implements BpmDetect.BpmCallback {
+        float bpm;
+        int estimates;
+
+        @Override
+        public void onCreate(float[] xAxis) {}
+
+        @Override
+        public void onProcess(float[] yAxis, float bpm, long position, long captureNanos) {
+            this.bpm = bpm;
+            estimates++;
+        }
+    }
+
+    private DetectorFixtures() {}
+
+    /** Rings whose mono one holds the window, plus the slack, in the engine's format. */
+    static CaptureRings newRings(BpmDetect.Engine engine, int sampleRate, int windowSize,
+            boolean fixedPoint) {
+        return new CaptureRings(4096, windowSize + RING_SLACK, fixedPoint, false, sampleRate,
+                engine.signedMix);
+    }
+}
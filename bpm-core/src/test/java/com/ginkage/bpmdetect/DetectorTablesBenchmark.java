@@ -0,0 +1,67 @@
+package com.ginkage.bpmdetect;
+
+import java.util.Locale;
+import org.junit.Test;
+
+import static com.ginkage.bpmdetect.DetectorFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Construction time and memory of wavelet detectors with the shared tables: the first detector of
+ * a window size builds the tables and the FFTW plans, a restarted one takes them and a pooled
+ * scratch, and one running next to another takes the tables with a scratch of its own. The
+ * memory of a detector does not count the shared tables.
+ *
+ * <p>Run with {@code ./gradlew :bpm-core:benchmark}. The window sizes are not the ones of the
+ * other benchmarks, so that their first detector is really the first in the process.
+ */
+public class DetectorTablesBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int[] WINDOW_SIZES = {524288, 1048576};
+    private static final int RESTARTS = 20;
+
+    private static BpmDetect create(CaptureRings rings, int windowSize) {
+        return new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(), SAMPLE_RATE,
+                windowSize, null, IGNORE);
+    }
+
+    @Test
+    public void constructionAndMemory() {
+        System.out.println("window   first us  restart us  concurrent us  KiB/detector");
+        for (int windowSize : WINDOW_SIZES) {
+            CaptureRings rings = newRings(BpmDetect.Engine.WAVELET, SAMPLE_RATE, windowSize, false);
+
+            long start = System.nanoTime();
+            BpmDetect first = create(rings, windowSize);
+            long firstNanos = System.nanoTime() - start;
+            long bytes = first.getNativeMemoryBytes();
+            first.destroy();
+
+            // Best of the restarts, each one with the scratch the previous one gave back
+            long restartNanos = Long.MAX_VALUE;
+            for (int i = 0; i < RESTARTS; i++) {
+                start = System.nanoTime();
+                BpmDetect restarted = create(rings, windowSize);
+                restartNanos = Math.min(restartNanos, System.nanoTime() - start);
+                assertEquals(bytes, restarted.getNativeMemoryBytes());
+                restarted.destroy();
+            }
+
+            BpmDetect running = create(rings, windowSize);
+            start = System.nanoTime();
+            BpmDetect concurrent = create(rings, windowSize);
+            long concurrentNanos = System.nanoTime() - start;
+            assertEquals(bytes, concurrent.getNativeMemoryBytes());
+            concurrent.destroy();
+            running.destroy();
+
+            System.out.println(String.format(Locale.ROOT, "%-8d %8d %11d %14d %13d",
+                    windowSize, firstNanos / 1000, restartNanos / 1000,
+                    concurrentNanos / 1000, bytes / 1024));
+
+            // Planning is what the sharing saves
+            assertTrue(restartNanos < firstNanos);
+            assertTrue(concurrentNanos < firstNanos);
+        }
+    }
+}
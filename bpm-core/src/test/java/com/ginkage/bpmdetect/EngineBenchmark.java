@@ -0,0 +1,83 @@
+package com.ginkage.bpmdetect;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import org.junit.Test;
+
+import static com.ginkage.bpmdetect.DetectorFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * CPU time of the tempo engines per second of audio, at the analysis rates the scheduler moves
+ * between: 20 windows a second while the tempo changes, down to one once it is locked. The
+ * wavelet engine redoes its whole window every time, the spectral flux one only takes the new
+ * samples, so their costs depend on the rate very differently. Adaptive band weights add an
+ * autocorrelation per band to every wavelet window. The accuracy of the engines is measured by
+ * {@link TempoAccuracyBenchmark}.
+ *
+ * <p>Run with {@code ./gradlew :bpm-core:benchmark}.
+ */
+public class EngineBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int WINDOW_SIZE = 131072;
+    private static final int BLOCK_FRAMES = 256;
+    private static final double SECONDS = 20;
+    private static final int[] RATES = {20, 4, 1};
+
+    /** Returns the analysis CPU milliseconds per second of audio. */
+    private static double run(BpmDetect.Engine engine, boolean adaptive, int rate) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        CaptureRings rings = newRings(engine, SAMPLE_RATE, WINDOW_SIZE, false);
+        LastTempo tempo = new LastTempo();
+        BpmDetect detect = new BpmDetect(
+                engine, rings.getMono(), SAMPLE_RATE, WINDOW_SIZE, null, tempo);
+        SyntheticLoop loop = new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1);
+        float[] block = new float[2 * BLOCK_FRAMES];
+        int hop = SAMPLE_RATE / rate;
+        long cpuNanos = 0;
+        try {
+            detect.setAdaptiveWeights(adaptive);
+            long frames = (long) (SECONDS * SAMPLE_RATE);
+            for (long written = 0; written < frames; written += BLOCK_FRAMES) {
+                loop.renderStereo(block, BLOCK_FRAMES);
+                rings.write(block, block.length, 0);
+                if ((written + BLOCK_FRAMES) % hop < BLOCK_FRAMES) {
+                    long start = threads.getCurrentThreadCpuTime();
+                    detect.processSamples();
+                    cpuNanos += threads.getCurrentThreadCpuTime() - start;
+                }
+            }
+            assertEquals(128, tempo.bpm, 1.28f);
+        } finally {
+            detect.destroy();
+        }
+        return cpuNanos / 1e6 / SECONDS;
+    }
+
+    @Test
+    public void cpuPerSecondOfAudio() {
+        // Warm up the JIT and the shared FFTW plans, so that the first row is not off
+        run(BpmDetect.Engine.WAVELET, false, RATES[0]);
+        run(BpmDetect.Engine.SPECTRAL_FLUX, false, RATES[0]);
+
+        System.out.print("CPU ms/s at      ");
+        for (int rate : RATES) {
+            System.out.print(String.format(Locale.ROOT, "%6d/s", rate));
+        }
+        System.out.println();
+        Object[][] rows = {
+            {"wavelet", BpmDetect.Engine.WAVELET, false},
+            {"wavelet adaptive", BpmDetect.Engine.WAVELET, true},
+            {"spectral flux", BpmDetect.Engine.SPECTRAL_FLUX, false},
+        };
+        for (Object[] row : rows) {
+            System.out.print(String.format(Locale.ROOT, "%-17s", row[0]));
+            for (int rate : RATES) {
+                double cpu = run((BpmDetect.Engine) row[1], (Boolean) row[2], rate);
+                System.out.print(String.format(Locale.ROOT, "%8.1f", cpu));
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.ginkage.bpmdetect;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+import static com.ginkage.bpmdetect.DetectorFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Time of the envelope recombination per window, taken from the native trace spans, next to the
+ * wavelet decomposition before it and the whole window. The memory traffic of the recombination
+ * is counted from its passes over the envelope length: the fused kernel reads the coefficients
+ * twice with the undersampling stride and updates the sum once, where the previous one copied
+ * them into a buffer, rectified it in place, summed it and read it once more into the sum. The
+ * traffic is counted for the float kernel, the fixed-point one reads 16-bit coefficients.
+ *
+ * <p>Run with {@code ./gradlew :bpm-core:benchmark}.
+ */
+public class EnvelopeBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int[] WINDOW_SIZES = {65536, 131072, 262144};
+    private static final int BLOCK_FRAMES = 256;
+    private static final int WINDOWS = 200;
+    // Same as the native detector: four detail levels and the approximation
+    private static final int BANDS = 5;
+    private static final int MAX_PACE = 8;
+    // Passes over the envelope length per band, in floats read or written
+    private static final int FUSED_PASSES = 4;
+    private static final int UNFUSED_PASSES = 8;
+
+    private static final Pattern DURATION =
+            Pattern.compile("\"name\":\"(bpm\\.[a-z]+)\"[^}]*?\"dur\":([0-9.]+)");
+
+    /** Median duration in microseconds of every span of the name in the trace. */
+    private static double median(String json, String name) {
+        double[] values = new double[WINDOWS];
+        int count = 0;
+        Matcher matcher = DURATION.matcher(json);
+        while (matcher.find()) {
+            if (matcher.group(1).equals(name) && count < values.length) {
+                values[count++] = Double.parseDouble(matcher.group(2));
+            }
+        }
+        assertTrue(name, count > 0);
+        Arrays.sort(values, 0, count);
+        return values[count / 2];
+    }
+
+    private static String trace(int windowSize, boolean fixedPoint) throws IOException {
+        CaptureRings rings =
+                newRings(BpmDetect.Engine.WAVELET, SAMPLE_RATE, windowSize, fixedPoint);
+        BpmDetect detect = new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(),
+                SAMPLE_RATE, windowSize, null, IGNORE);
+        SyntheticLoop loop = new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1);
+        float[] block = new float[2 * BLOCK_FRAMES];
+        short[] fixedBlock = new short[2 * BLOCK_FRAMES];
+        File file = File.createTempFile("envelope", ".json");
+        try {
+            for (long written = 0; written < windowSize; written += BLOCK_FRAMES) {
+                loop.renderStereo(block, BLOCK_FRAMES);
+                if (fixedPoint) {
+                    for (int i = 0; i < block.length; i++) {
+                        fixedBlock[i] = (short) Math.round(block[i] * Short.MAX_VALUE);
+                    }
+                    rings.write(fixedBlock, block.length, 0);
+                } else {
+                    rings.write(block, block.length, 0);
+                }
+            }
+            // Warm up, then trace the same window over and over
+            for (int i = 0; i < 10; i++) {
+                detect.processSamples();
+            }
+            Tracer.setEnabled(true);
+            Tracer.export(file);
+            for (int i = 0; i < WINDOWS; i++) {
+                detect.processSamples();
+            }
+            Tracer.export(file);
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } finally {
+            Tracer.setEnabled(false);
+            detect.destroy();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void envelopePerWindow() throws IOException {
+        System.out.println("window   path   recombine us  decompose us  window us  share"
+                + "  fused KiB  unfused KiB");
+        for (int windowSize : WINDOW_SIZES) {
+            // Floats along the envelope, for every band
+            long floats = (long) BANDS * windowSize / MAX_PACE / 2;
+            for (boolean fixedPoint : new boolean[] {false, true}) {
+                String json = trace(windowSize, fixedPoint);
+                double recombine = median(json, "bpm.recombine");
+                double envelope = median(json, "bpm.envelope");
+                double window = median(json, "bpm.window");
+                System.out.println(String.format(Locale.ROOT,
+                        "%-8d %-6s %12.1f %13.1f %10.1f %5.1f%% %10d %12d",
+                        windowSize, fixedPoint ? "fixed" : "float", recombine,
+                        envelope - recombine, window, 100 * recombine / window,
+                        floats * FUSED_PASSES * 4 / 1024, floats * UNFUSED_PASSES * 4 / 1024));
+                assertTrue(recombine < envelope);
+            }
+        }
+    }
+}
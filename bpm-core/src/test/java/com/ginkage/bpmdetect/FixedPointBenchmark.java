@@ -0,0 +1,103 @@
+package com.ginkage.bpmdetect;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import org.junit.Test;
+
+import static com.ginkage.bpmdetect.DetectorFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Float against fixed-point wavelet pipeline on the same loops: tempo error, CPU time per window
+ * and the memory each one holds. There is no energy meter on a desktop JVM, the thread CPU time
+ * of the analysis stands in for it. Loud and quiet loops are both played, since the 16-bit path
+ * loses resolution on the quiet ones first.
+ *
+ * <p>Run with {@code ./gradlew :bpm-core:benchmark}.
+ */
+public class FixedPointBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int WINDOW_SIZE = 131072;
+    private static final int BLOCK_FRAMES = 256;
+    private static final int HOP_FRAMES = SAMPLE_RATE / 4;
+    private static final double SECONDS = 20;
+    private static final float[] TEMPOS = {90, 128, 140, 172};
+    private static final float[] GAINS = {1, 0.01f};
+
+    private static class Result {
+        double bpmError;
+        long cpuNanos;
+        int windows;
+        long memoryBytes;
+    }
+
+    private static Result run(float bpm, float gain, boolean fixedPoint) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        CaptureRings rings =
+                newRings(BpmDetect.Engine.WAVELET, SAMPLE_RATE, WINDOW_SIZE, fixedPoint);
+        LastTempo tempo = new LastTempo();
+        BpmDetect detect = new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(),
+                SAMPLE_RATE, WINDOW_SIZE, null, tempo);
+        SyntheticLoop loop = new SyntheticLoop(SAMPLE_RATE, bpm, 0.3, 1);
+        float[] block = new float[2 * BLOCK_FRAMES];
+        short[] fixedBlock = new short[2 * BLOCK_FRAMES];
+        Result result = new Result();
+        try {
+            long frames = (long) (SECONDS * SAMPLE_RATE);
+            for (long written = 0; written < frames; written += BLOCK_FRAMES) {
+                loop.renderStereo(block, BLOCK_FRAMES);
+                if (fixedPoint) {
+                    for (int i = 0; i < block.length; i++) {
+                        fixedBlock[i] = (short) Math.round(block[i] * gain * Short.MAX_VALUE);
+                    }
+                    rings.write(fixedBlock, block.length, 0);
+                } else {
+                    for (int i = 0; i < block.length; i++) {
+                        block[i] *= gain;
+                    }
+                    rings.write(block, block.length, 0);
+                }
+                if (written + BLOCK_FRAMES >= WINDOW_SIZE
+                        && (written + BLOCK_FRAMES) % HOP_FRAMES < BLOCK_FRAMES) {
+                    long start = threads.getCurrentThreadCpuTime();
+                    detect.processSamples();
+                    result.cpuNanos += threads.getCurrentThreadCpuTime() - start;
+                    result.windows++;
+                }
+            }
+            result.bpmError = Math.abs(tempo.bpm - bpm) / bpm;
+            result.memoryBytes = detect.getNativeMemoryBytes() + detect.getWindowBytes()
+                    + rings.getMono().getMemoryBytes();
+        } finally {
+            detect.destroy();
+        }
+        return result;
+    }
+
+    @Test
+    public void floatVersusFixedPoint() {
+        // Warm up the JIT and the shared FFTW plans, so that the first row is not off
+        run(TEMPOS[0], 1, false);
+        run(TEMPOS[0], 1, true);
+
+        System.out.println("bpm   gain   float err  fixed err  float us/win  fixed us/win"
+                + "  float KiB  fixed KiB");
+        for (float gain : GAINS) {
+            for (float bpm : TEMPOS) {
+                Result floats = run(bpm, gain, false);
+                Result fixed = run(bpm, gain, true);
+                System.out.println(String.format(Locale.ROOT,
+                        "%-5.0f %-6.2f %8.2f%% %9.2f%% %13d %13d %10d %10d",
+                        bpm, gain, 100 * floats.bpmError, 100 * fixed.bpmError,
+                        floats.cpuNanos / 1000 / floats.windows,
+                        fixed.cpuNanos / 1000 / fixed.windows,
+                        floats.memoryBytes / 1024, fixed.memoryBytes / 1024));
+
+                // The 16-bit path must not cost accuracy, nor hold more than the float one
+                assertEquals(floats.bpmError, fixed.bpmError, 0.01);
+                assertTrue(fixed.memoryBytes < floats.memoryBytes);
+            }
+        }
+    }
+}
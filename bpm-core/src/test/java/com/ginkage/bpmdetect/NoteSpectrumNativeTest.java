@@ -0,0 +1,82 @@
+package com.ginkage.bpmdetect;
+
+import java.nio.FloatBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NoteSpectrumNativeTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int MIN_NOTE = FreqData.MIN_NOTE;
+    private static final int MAX_NOTE = FreqData.MAX_NOTE;
+    private static final int BINS_PER_NOTE = 2;
+    private static final int BLOCK_FRAMES = 256;
+    // About a second of capture blocks
+    private static final int FRAMES = 188 * BLOCK_FRAMES;
+
+    private static float[] sine(double freq, int frames) {
+        float[] block = new float[2 * frames];
+        for (int i = 0; i < frames; i++) {
+            float x = (float) Math.sin(2 * Math.PI * freq * i / SAMPLE_RATE);
+            block[2 * i] = x;
+            block[2 * i + 1] = x;
+        }
+        return block;
+    }
+
+    /** Feeds the samples in capture blocks, updating the spectrum every few of them. */
+    private static float[] analyze(float[] stereo, int maxSamples, int blocksPerUpdate) {
+        CircularBuffer ring = new CircularBuffer(stereo.length);
+        NoteSpectrum spectrum = new NoteSpectrum(
+                ring, maxSamples, SAMPLE_RATE, MIN_NOTE, MAX_NOTE, BINS_PER_NOTE);
+        try {
+            float[] block = new float[2 * BLOCK_FRAMES];
+            FloatBuffer magnitudes = null;
+            for (int i = 0, blocks = 0; i < stereo.length; i += block.length) {
+                System.arraycopy(stereo, i, block, 0, block.length);
+                ring.write(block, block.length, 0);
+                if (++blocks % blocksPerUpdate == 0) {
+                    magnitudes = spectrum.execute();
+                }
+            }
+            magnitudes = spectrum.execute();
+            assertEquals(ring.getLatest(), spectrum.getPosition());
+            float[] result = new float[spectrum.getBins()];
+            magnitudes.get(result);
+            return result;
+        } finally {
+            spectrum.destroy();
+        }
+    }
+
+    private static int bin(int note) {
+        return (note - MIN_NOTE) * BINS_PER_NOTE;
+    }
+
+    @Test
+    public void sineAtBin_givesAboutOne() {
+        // A4, a few octaves below the highest notes, so it went through the decimations
+        float[] result = analyze(sine(440, 2 * FRAMES), 8192, 3);
+        assertEquals(1, result[bin(57)], 0.1);
+    }
+
+    @Test
+    public void smallUpdates_matchOneLargeUpdate() {
+        float[] stereo = sine(110, FRAMES);
+        float[] small = analyze(stereo, 8192, 1);
+        float[] large = analyze(stereo, stereo.length, stereo.length / (2 * BLOCK_FRAMES));
+        assertArrayEquals(large, small, 1e-4f);
+    }
+
+    @Test
+    public void toneAboveTheNotes_doesNotAliasOntoThem() {
+        // 7/16 of the rate folds onto 1/16 at the first decimation, where the next octave's
+        // notes are
+        float[] result = analyze(sine(SAMPLE_RATE * 7.0 / 16, 2 * FRAMES), 8192, 3);
+        float max = 0;
+        for (int i = 0; i < bin(MAX_NOTE - 12); i++) {
+            max = Math.max(max, result[i]);
+        }
+        assertTrue("Aliased magnitude " + max, max < 1e-3);
+    }
+}
@@ -0,0 +1,127 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class SessionReplayTest {
+    private static final int RING_SIZE = 4096;
+    private static final int BLOCK = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static float[] block(int index) {
+        float[] values = new float[BLOCK];
+        for (int i = 0; i < BLOCK; i++) {
+            values[i] = (float) Math.sin(0.01 * (index * BLOCK + i));
+        }
+        return values;
+    }
+
+    private static float[] readMono(CaptureRings rings, int n) {
+        float[] out = new float[n];
+        rings.getMono().read(out, n);
+        return out;
+    }
+
+    @Test
+    public void replay_reproducesTheRings() throws IOException, InterruptedException {
+        File log = folder.newFile("session.bpmlog");
+        CaptureRings live = new CaptureRings(RING_SIZE, RING_SIZE, false, false, 48000);
+        SessionRecorder recorder = new SessionRecorder(log, 48000, 2, false, BLOCK, 64);
+        for (int i = 0; i < 10; i++) {
+            float[] values = block(i);
+            assertTrue(recorder.record(values, BLOCK, 1000L * i));
+            live.write(values, BLOCK, 1000L * i);
+        }
+        recorder.close();
+        assertEquals(0, recorder.getDroppedBlocks());
+
+        CaptureRings replayed = new CaptureRings(RING_SIZE, RING_SIZE, false, false, 48000);
+        try (ReplaySource source = new ReplaySource(log)) {
+            assertEquals(48000, source.getSampleRate());
+            assertEquals(2, source.getChannels());
+            assertFalse(source.isFixedPoint());
+            assertEquals(10, source.replay(replayed, false, null));
+        }
+
+        assertEquals(live.getMono().getLatest(), replayed.getMono().getLatest());
+        assertArrayEquals(readMono(live, 5 * BLOCK), readMono(replayed, 5 * BLOCK), 0);
+    }
+
+    @Test
+    public void replay_marksTheDroppedBlocks() throws IOException, InterruptedException {
+        File log = folder.newFile("dropped.bpmlog");
+        SessionRecorder recorder = new SessionRecorder(log, 48000, 2, false, BLOCK, 64);
+        assertTrue(recorder.record(block(0), BLOCK, 0));
+        // Larger than a slot, so it is dropped whatever the writer is doing
+        assertFalse(recorder.record(new float[2 * BLOCK], 2 * BLOCK, 1000));
+        assertTrue(recorder.record(block(1), BLOCK, 2000));
+        recorder.close();
+        assertEquals(1, recorder.getDroppedBlocks());
+
+        CaptureRings replayed = new CaptureRings(RING_SIZE, RING_SIZE, false, false, 48000);
+        try (ReplaySource source = new ReplaySource(log)) {
+            assertEquals(2, source.replay(replayed, false, null));
+            assertEquals(1, source.getGaps());
+        }
+        assertEquals(BLOCK, replayed.getStereo().getDiscontinuity());
+        assertEquals(2 * BLOCK, replayed.getStereo().getLatest());
+    }
+
+    @Test
+    public void replay_marksTheCaptureGaps() throws IOException, InterruptedException {
+        File log = folder.newFile("gap.bpmlog");
+        SessionRecorder recorder = new SessionRecorder(log, 48000, 2, false, BLOCK, 64);
+        assertTrue(recorder.record(block(0), BLOCK, 0));
+        assertTrue(recorder.record(block(1), BLOCK, 1000));
+        recorder.markGap(96);
+        assertTrue(recorder.record(block(2), BLOCK, 5000));
+        recorder.close();
+        assertEquals(0, recorder.getDroppedBlocks());
+
+        CaptureRings replayed = new CaptureRings(RING_SIZE, RING_SIZE, false, false, 48000);
+        try (ReplaySource source = new ReplaySource(log)) {
+            assertEquals(3, source.replay(replayed, false, null));
+            assertEquals(1, source.getGaps());
+        }
+        assertEquals(2 * BLOCK, replayed.getStereo().getDiscontinuity());
+    }
+
+    @Test
+    public void replay_rejectsOtherVersions() throws IOException {
+        File log = folder.newFile("old.bpmlog");
+        ByteBuffer bytes = ByteBuffer.allocate(SessionRecorder.HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(SessionRecorder.MAGIC).putInt(SessionRecorder.VERSION - 1)
+                .putInt(44100).putInt(2).putInt(4);
+        Files.write(log.toPath(), bytes.array());
+        try {
+            new ReplaySource(log).close();
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // Another layout of the blocks
+        }
+    }
+
+    @Test
+    public void replay_rejectsOtherFiles() throws IOException {
+        File file = folder.newFile("other.bin");
+        Files.write(file.toPath(), new byte[SessionRecorder.HEADER_BYTES]);
+        try {
+            new ReplaySource(file).close();
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // Not a session log
+        }
+    }
+}
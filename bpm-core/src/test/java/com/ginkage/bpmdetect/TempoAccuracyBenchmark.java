@@ -0,0 +1,125 @@
+package com.ginkage.bpmdetect;
+
+import java.util.Locale;
+import org.junit.Test;
+
+import static com.ginkage.bpmdetect.DetectorFixtures.*;
+import static org.junit.Assert.*;
+
+/**
+ * Accuracy of the tempo engines over a matrix of synthetic loops: tempos across the range, plain
+ * and accented kicks, with and without off-beat hats, at several window sizes. Every settled
+ * estimate is sorted into the right tempo, twice or half of it (octave errors), or something else.
+ * This is the harness the octave check is calibrated on.
+ *
+ * <p>Run with {@code ./gradlew :bpm-core:benchmark}.
+ */
+public class TempoAccuracyBenchmark {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BLOCK_FRAMES = 256;
+    private static final int HOP_FRAMES = SAMPLE_RATE / 4;
+    private static final double SECONDS = 16;
+    // Within the engines' range, and within the window's for the smaller windows
+    private static final float[] TEMPOS = {70, 80, 90, 100, 110, 120, 128, 140, 150, 160, 174};
+    private static final float[] ACCENTS = {1, 0.7f};
+    private static final float[] HAT_LEVELS = {0, 0.3f, 0.6f};
+    private static final int[] WINDOW_SIZES = {65536, 131072, 262144};
+    // The window the app analyzes, which must not make octave errors
+    private static final int APP_WINDOW_SIZE = 65536;
+    private static final float TOLERANCE = 0.02f;
+
+    private static class Score {
+        int right;
+        int twice;
+        int half;
+        int other;
+
+        int total() {
+            return right + twice + half + other;
+        }
+
+        void add(float bpm, float expected) {
+            if (Math.abs(bpm - expected) <= TOLERANCE * expected) {
+                right++;
+            } else if (Math.abs(bpm - 2 * expected) <= 2 * TOLERANCE * expected) {
+                twice++;
+            } else if (Math.abs(bpm - expected / 2) <= TOLERANCE * expected / 2) {
+                half++;
+            } else {
+                other++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%5.1f%% right, %3d twice, %3d half, %3d other",
+                    100.0 * right / total(), twice, half, other);
+        }
+    }
+
+    /** Plays the loop and returns the settled tempo. */
+    private static float detect(BpmDetect.Engine engine, int windowSize, SyntheticLoop loop) {
+        CaptureRings rings = newRings(engine, SAMPLE_RATE, windowSize, false);
+        LastTempo tempo = new LastTempo();
+        BpmDetect detect = new BpmDetect(
+                engine, rings.getMono(), SAMPLE_RATE, windowSize, null, tempo);
+        float[] block = new float[2 * BLOCK_FRAMES];
+        try {
+            long frames = (long) (SECONDS * SAMPLE_RATE);
+            long first = detect.isIncremental() ? HOP_FRAMES : windowSize;
+            for (long written = 0; written < frames; written += BLOCK_FRAMES) {
+                loop.renderStereo(block, BLOCK_FRAMES);
+                rings.write(block, block.length, 0);
+                long end = written + BLOCK_FRAMES;
+                if (end >= first && end % HOP_FRAMES < BLOCK_FRAMES) {
+                    detect.processSamples();
+                }
+            }
+        } finally {
+            detect.destroy();
+        }
+        return tempo.bpm;
+    }
+
+    private static Score score(BpmDetect.Engine engine, int windowSize, boolean print) {
+        // The lowest tempo the window holds one and a half periods of, for the windowed engine
+        float minBpm = engine == BpmDetect.Engine.WAVELET
+                ? Math.max(40, SAMPLE_RATE * 90f / windowSize) : 60;
+        Score score = new Score();
+        for (float accent : ACCENTS) {
+            for (float hat : HAT_LEVELS) {
+                for (float bpm : TEMPOS) {
+                    if (bpm < minBpm * (1 + TOLERANCE)) {
+                        continue;
+                    }
+                    SyntheticLoop loop = new SyntheticLoop(SAMPLE_RATE, bpm, 0.3, (long) bpm)
+                            .setAccent(accent).setHatLevel(hat);
+                    float found = detect(engine, windowSize, loop);
+                    score.add(found, bpm);
+                    if (print && Math.abs(found - bpm) > TOLERANCE * bpm) {
+                        System.out.println(String.format(Locale.ROOT,
+                                "  %s %d: %.0f BPM (accent %.1f, hat %.1f) read as %.1f",
+                                engine, windowSize, bpm, accent, hat, found));
+                    }
+                }
+            }
+        }
+        return score;
+    }
+
+    @Test
+    public void accuracyByEngineAndWindow() {
+        for (int windowSize : WINDOW_SIZES) {
+            Score score = score(BpmDetect.Engine.WAVELET, windowSize, true);
+            System.out.println(String.format(Locale.ROOT, "wavelet %6d: %s (%d loops)",
+                    windowSize, score, score.total()));
+            if (windowSize == APP_WINDOW_SIZE) {
+                assertEquals(0, score.twice + score.half);
+            }
+        }
+        Score flux = score(BpmDetect.Engine.SPECTRAL_FLUX, HOP_FRAMES, true);
+        System.out.println(String.format(Locale.ROOT, "flux          : %s (%d loops)",
+                flux, flux.total()));
+        assertEquals(0, flux.twice + flux.half);
+    }
+}
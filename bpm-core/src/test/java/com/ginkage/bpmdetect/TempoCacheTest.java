@@ -0,0 +1,119 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class TempoCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lookup_acceptsAFewDifferentBits() {
+        TempoCache cache = new TempoCache(4);
+        cache.put(0x00ffL, 128);
+        assertEquals(128, cache.lookup(0x003fL), 0);
+        assertTrue(Float.isNaN(cache.lookup(0xff00L)));
+    }
+
+    @Test
+    public void load_restoresTheSavedEntries() throws IOException {
+        File file = folder.newFile("tempo.cache");
+        TempoCache saved = new TempoCache(4);
+        saved.put(1, 100);
+        saved.put(2, 128);
+        saved.save(file);
+
+        TempoCache loaded = new TempoCache(4);
+        loaded.put(3, 140);
+        loaded.load(file);
+        assertEquals(100, loaded.lookup(1), 0);
+        assertEquals(128, loaded.lookup(2), 0);
+        assertEquals(140, loaded.lookup(3), 0);
+    }
+
+    @Test
+    public void load_keepsTheNewerEntries() throws IOException {
+        File file = folder.newFile("tempo.cache");
+        TempoCache saved = new TempoCache(2);
+        saved.put(0x0fL, 100);
+        saved.put(0xf0L, 128);
+        saved.save(file);
+
+        // Put while the file was loading, it must not be the first one evicted
+        TempoCache loaded = new TempoCache(2);
+        loaded.put(0xf00L, 140);
+        loaded.load(file);
+        assertEquals(140, loaded.lookup(0xf00L), 0);
+        assertEquals(128, loaded.lookup(0xf0L), 0);
+        assertTrue(Float.isNaN(loaded.lookup(0x0fL)));
+    }
+
+    @Test
+    public void load_rejectsAWrongCount() throws IOException {
+        File file = folder.newFile("tempo.cache");
+        TempoCache saved = new TempoCache(4);
+        saved.put(0x0fL, 100);
+        saved.put(0xf0L, 128);
+        saved.save(file);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(4);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+
+        TempoCache loaded = new TempoCache(4);
+        loaded.put(0xf00L, 140);
+        try {
+            loaded.load(file);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(140, loaded.lookup(0xf00L), 0);
+        assertTrue(Float.isNaN(loaded.lookup(0x0fL)));
+    }
+
+    @Test
+    public void load_rejectsATruncatedFile() throws IOException {
+        File file = folder.newFile("tempo.cache");
+        TempoCache saved = new TempoCache(4);
+        saved.put(1, 100);
+        saved.put(2, 128);
+        saved.save(file);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(file.length() - 6);
+        }
+
+        TempoCache loaded = new TempoCache(4);
+        try {
+            loaded.load(file);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(Float.isNaN(loaded.lookup(1)));
+    }
+
+    @Test
+    public void load_ignoresOtherVersions() throws IOException {
+        File file = folder.newFile("tempo.cache");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeLong(1);
+            out.writeFloat(100);
+        }
+
+        TempoCache loaded = new TempoCache(4);
+        loaded.load(file);
+        assertTrue(Float.isNaN(loaded.lookup(1)));
+    }
+}
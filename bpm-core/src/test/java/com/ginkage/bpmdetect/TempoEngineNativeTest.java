@@ -0,0 +1,236 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.Test;
+
+import static com.ginkage.bpmdetect.DetectorFixtures.*;
+import static org.junit.Assert.*;
+
+public class TempoEngineNativeTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int WINDOW_SIZE = 131072;
+    private static final int BLOCK_FRAMES = 256;
+    // Analysis every quarter of a second, as the scheduler does once the tempo is stable
+    private static final int HOP_FRAMES = SAMPLE_RATE / 4;
+
+    /** Writes the loop into the rings in capture blocks, analyzing it every hop. */
+    private static void play(SyntheticLoop loop, CaptureRings rings, BpmDetect detect,
+            double seconds) {
+        float[] block = new float[2 * BLOCK_FRAMES];
+        long frames = (long) (seconds * SAMPLE_RATE);
+        for (long written = 0; written < frames; written += BLOCK_FRAMES) {
+            loop.renderStereo(block, BLOCK_FRAMES);
+            rings.write(block, 2 * BLOCK_FRAMES, 0);
+            if ((written + BLOCK_FRAMES) % HOP_FRAMES < BLOCK_FRAMES) {
+                detect.processSamples();
+            }
+        }
+    }
+
+    private static float detect(BpmDetect.Engine engine, float bpm) {
+        return detect(engine, WINDOW_SIZE, bpm);
+    }
+
+    private static float detect(BpmDetect.Engine engine, int windowSize, float bpm) {
+        CaptureRings rings = newRings(engine, SAMPLE_RATE, windowSize, false);
+        LastTempo tempo = new LastTempo();
+        BpmDetect detect = new BpmDetect(
+                engine, rings.getMono(), SAMPLE_RATE, windowSize, null, tempo);
+        try {
+            play(new SyntheticLoop(SAMPLE_RATE, bpm, 0.3, 1), rings, detect, 12);
+        } finally {
+            detect.destroy();
+        }
+        assertTrue(tempo.estimates > 0);
+        return tempo.bpm;
+    }
+
+    /** Plays the loop and returns the fingerprint of the last window. */
+    private static long fingerprint(BpmDetect.Engine engine, SyntheticLoop loop) {
+        CaptureRings rings = newRings(engine, SAMPLE_RATE, WINDOW_SIZE, false);
+        BpmDetect detect = new BpmDetect(
+                engine, rings.getMono(), SAMPLE_RATE, WINDOW_SIZE, null, new LastTempo());
+        try {
+            play(loop, rings, detect, 8);
+            return detect.getFingerprint();
+        } finally {
+            detect.destroy();
+        }
+    }
+
+    @Test
+    public void wavelet_findsTheTempo() {
+        // Slow ones included, they must not be read at twice their tempo
+        for (float bpm : new float[] {80, 100, 128, 140, 172}) {
+            assertEquals(bpm, detect(BpmDetect.Engine.WAVELET, bpm), 0.01f * bpm);
+        }
+    }
+
+    @Test
+    public void wavelet_measuresLagsAtTheEnvelopeRate() {
+        // A wrong envelope rate scales every tempo, and the slow ones fold to twice their value
+        for (int windowSize : new int[] {65536, 131072, 262144}) {
+            for (float bpm : new float[] {70, 120}) {
+                assertEquals(windowSize + " samples", bpm,
+                        detect(BpmDetect.Engine.WAVELET, windowSize, bpm), 0.01f * bpm);
+            }
+        }
+    }
+
+    @Test
+    public void spectralFlux_findsTheTempo() {
+        for (float bpm : new float[] {128, 140, 172}) {
+            assertEquals(bpm, detect(BpmDetect.Engine.SPECTRAL_FLUX, bpm), 0.01f * bpm);
+        }
+    }
+
+    @Test
+    public void wavelet_rejectsUnsupportedWindows() {
+        CaptureRings rings = newRings(BpmDetect.Engine.WAVELET, SAMPLE_RATE, WINDOW_SIZE, false);
+        // Not a power of two, and too short for the slowest tempo
+        for (int windowSize : new int[] {WINDOW_SIZE - 64, 98304, 16384}) {
+            try {
+                new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(), SAMPLE_RATE,
+                        windowSize, null, new LastTempo()).destroy();
+                fail("Accepted " + windowSize);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void spectralFlux_isIncremental() {
+        CaptureRings rings =
+                newRings(BpmDetect.Engine.SPECTRAL_FLUX, SAMPLE_RATE, WINDOW_SIZE, false);
+        BpmDetect detect = new BpmDetect(BpmDetect.Engine.SPECTRAL_FLUX, rings.getMono(),
+                SAMPLE_RATE, WINDOW_SIZE, null, new LastTempo());
+        BpmDetect wavelet = new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(),
+                SAMPLE_RATE, WINDOW_SIZE, null, new LastTempo());
+        try {
+            assertTrue(detect.isIncremental());
+            assertFalse(wavelet.isIncremental());
+        } finally {
+            detect.destroy();
+            wavelet.destroy();
+        }
+    }
+
+    @Test
+    public void wavelet_reportsTheBands() {
+        CaptureRings rings = newRings(BpmDetect.Engine.WAVELET, SAMPLE_RATE, WINDOW_SIZE, false);
+        float[][] bands = new float[3][];
+        BpmDetect detect = new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(),
+                SAMPLE_RATE, WINDOW_SIZE, null, new LastTempo() {
+                    @Override
+                    public void onBands(
+                            float[] envelopes, float[] correlations, float[] weights) {
+                        bands[0] = envelopes.clone();
+                        bands[1] = correlations.clone();
+                        bands[2] = weights.clone();
+                    }
+                });
+        try {
+            play(new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1), rings, detect, 4);
+            assertNull(bands[2]);
+
+            detect.setBandOutput(true);
+            detect.setBandWeights(new float[] {0, 0, 0, 0, 2});
+            play(new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1), rings, detect, 1);
+            assertArrayEquals(new float[] {0, 0, 0, 0, 2}, bands[2], 0);
+            assertEquals(0, bands[0].length % 5);
+            assertEquals(0, bands[1].length % 5);
+        } finally {
+            detect.destroy();
+        }
+    }
+
+    @Test
+    public void wavelet_adaptsTheWeightsToTheBeat() {
+        CaptureRings rings = newRings(BpmDetect.Engine.WAVELET, SAMPLE_RATE, WINDOW_SIZE, false);
+        float[] weights = new float[5];
+        LastTempo tempo = new LastTempo() {
+            @Override
+            public void onBands(float[] envelopes, float[] correlations, float[] bandWeights) {
+                System.arraycopy(bandWeights, 0, weights, 0, weights.length);
+            }
+        };
+        BpmDetect detect = new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(),
+                SAMPLE_RATE, WINDOW_SIZE, null, tempo);
+        try {
+            detect.setAdaptiveWeights(true);
+            detect.setBandOutput(true);
+            play(new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1), rings, detect, 12);
+            assertEquals(128, tempo.bpm, 1.28f);
+
+            // Kept at a mean of 1, with the kick's band above the noise above it
+            float total = 0;
+            for (float weight : weights) {
+                total += weight;
+            }
+            assertEquals(5, total, 0.01f);
+            assertTrue(weights[4] > weights[0]);
+        } finally {
+            detect.destroy();
+        }
+    }
+
+    @Test
+    public void fingerprint_tellsTracksOfTheSameTempoApart() {
+        for (BpmDetect.Engine engine : BpmDetect.Engine.values()) {
+            long first = fingerprint(engine, new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1));
+            long again = fingerprint(engine, new SyntheticLoop(SAMPLE_RATE, 128, 0.7, 2));
+            long other = fingerprint(engine, new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1)
+                    .setHatLevel(0).setAccent(0.7f).setNoiseLevel(0.01f));
+            // Within and beyond the tempo cache's distance
+            assertTrue(engine.toString(), Long.bitCount(first ^ again) <= 6);
+            assertTrue(engine.toString(), Long.bitCount(first ^ other) > 6);
+        }
+    }
+
+    @Test
+    public void tempoCache_remembersEveryTrack() {
+        CaptureRings rings = newRings(BpmDetect.Engine.WAVELET, SAMPLE_RATE, WINDOW_SIZE, false);
+        TempoCache cache = new TempoCache(64);
+        BpmDetect detect = new BpmDetect(BpmDetect.Engine.WAVELET, rings.getMono(),
+                SAMPLE_RATE, WINDOW_SIZE, cache, new LastTempo());
+        try {
+            // The second track follows without a silence, the detector must see it change
+            play(new SyntheticLoop(SAMPLE_RATE, 128, 0.3, 1), rings, detect, 12);
+            long first = detect.getFingerprint();
+            play(new SyntheticLoop(SAMPLE_RATE, 100, 0.3, 2)
+                    .setHatLevel(0).setAccent(0.7f).setNoiseLevel(0.01f), rings, detect, 16);
+            long second = detect.getFingerprint();
+            assertEquals(128, cache.lookup(first), 1.28f);
+            assertEquals(100, cache.lookup(second), 1f);
+        } finally {
+            detect.destroy();
+        }
+    }
+
+    @Test
+    public void spectralFlux_keepsTheTempoAcrossOverwrittenSamples() {
+        // A small ring that the analysis cannot keep up with once it stalls
+        CaptureRings rings =
+                newRings(BpmDetect.Engine.SPECTRAL_FLUX, SAMPLE_RATE, SAMPLE_RATE / 2, false);
+        LastTempo tempo = new LastTempo();
+        BpmDetect detect = new BpmDetect(BpmDetect.Engine.SPECTRAL_FLUX, rings.getMono(),
+                SAMPLE_RATE, SAMPLE_RATE / 2, null, tempo);
+        SyntheticLoop loop = new SyntheticLoop(SAMPLE_RATE, 140, 0.3, 2);
+        try {
+            play(loop, rings, detect, 10);
+            assertEquals(0, detect.getGapSamples());
+
+            // Stall for two seconds, then catch up
+            float[] block = new float[2 * BLOCK_FRAMES];
+            for (int i = 0; i < 2 * SAMPLE_RATE / BLOCK_FRAMES; i++) {
+                loop.renderStereo(block, BLOCK_FRAMES);
+                rings.write(block, 2 * BLOCK_FRAMES, 0);
+            }
+            play(loop, rings, detect, 3);
+            assertTrue(detect.getGapSamples() > SAMPLE_RATE);
+            assertEquals(140, tempo.bpm, 1.4f);
+        } finally {
+            detect.destroy();
+        }
+    }
+}
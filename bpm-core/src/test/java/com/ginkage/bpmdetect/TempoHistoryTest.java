@@ -0,0 +1,164 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TempoHistoryTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int POINTS = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final float[] min = new float[POINTS];
+    private final float[] max = new float[POINTS];
+    private final float[] median = new float[POINTS];
+
+    private static long frames(double seconds) {
+        return (long) (seconds * SAMPLE_RATE);
+    }
+
+    /** One estimate every second of a session this long, at a constant tempo. */
+    private static TempoHistory steady(int seconds, float bpm) {
+        TempoHistory history = new TempoHistory(SAMPLE_RATE);
+        for (int i = 0; i < seconds; i++) {
+            history.add(frames(i + 0.5), bpm);
+        }
+        return history;
+    }
+
+    @Test
+    public void query_includesTheOpenBucket() {
+        TempoHistory history = new TempoHistory(SAMPLE_RATE);
+        history.add(frames(0.25), 120);
+        history.add(frames(0.5), 126);
+        history.add(frames(0.75), 121);
+
+        assertEquals(1, history.query(0, frames(1), POINTS, min, max, median));
+        assertEquals(120, min[0], 0.01f);
+        assertEquals(126, max[0], 0.01f);
+        assertEquals(121, median[0], 0.01f);
+
+        // Still open, a later estimate changes it
+        history.add(frames(0.9), 130);
+        assertEquals(1, history.query(0, frames(1), POINTS, min, max, median));
+        assertEquals(130, max[0], 0.01f);
+        assertEquals(123.5f, median[0], 0.01f);
+    }
+
+    @Test
+    public void query_includesTheOpenBucketAtCoarserLevels() {
+        TempoHistory history = steady(3, 128);
+        // 3 seconds at level 1 are a single open bucket of 4
+        assertEquals(1, history.getLevel(0, frames(4), 1));
+        assertEquals(1, history.query(0, frames(4), 1, min, max, median));
+        assertEquals(128, median[0], 0.01f);
+    }
+
+    @Test
+    public void query_leavesGapsEmpty() {
+        TempoHistory history = new TempoHistory(SAMPLE_RATE);
+        history.add(frames(0.5), 100);
+        history.add(frames(5.5), 140);
+
+        assertEquals(0, history.getLevel(0, frames(6), POINTS));
+        assertEquals(6, history.query(0, frames(6), POINTS, min, max, median));
+        assertEquals(100, median[0], 0.01f);
+        for (int i = 1; i < 5; i++) {
+            assertTrue(Float.isNaN(min[i]));
+            assertTrue(Float.isNaN(max[i]));
+            assertTrue(Float.isNaN(median[i]));
+        }
+        assertEquals(140, median[5], 0.01f);
+    }
+
+    @Test
+    public void getLevel_picksTheFinestThatFits() {
+        TempoHistory history = steady(2 * 3600, 128);
+        // Two hours in at most 64 points: 4^4 seconds per bucket is the first that fits
+        int level = history.getLevel(0, frames(2 * 3600), POINTS);
+        assertEquals(4, level);
+        int n = history.query(0, frames(2 * 3600), POINTS, min, max, median);
+        assertEquals((2 * 3600 + 255) / 256, n);
+        for (int i = 0; i < n; i++) {
+            assertEquals(128, median[i], 0.01f);
+        }
+    }
+
+    @Test
+    public void getLevel_skipsLevelsThatLostTheStart() {
+        // Longer than level 0 holds: its first buckets are gone
+        int seconds = TempoHistory.CAPACITY + 100;
+        TempoHistory history = steady(seconds, 128);
+        assertEquals(1, history.getLevel(0, frames(seconds), Integer.MAX_VALUE));
+        assertEquals(0, history.getLevel(frames(200), frames(seconds), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void exportBinary_roundTrips() throws IOException {
+        TempoHistory history = new TempoHistory(SAMPLE_RATE);
+        history.add(frames(0.5), 100);
+        history.add(frames(2.5), 120);
+        history.add(frames(9.2), 140);
+        history.add(frames(9.7), 150);
+
+        File file = folder.newFile("tempo.bpmhist");
+        history.exportBinary(file);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(TempoHistory.MAGIC, bytes.getInt());
+        assertEquals(TempoHistory.VERSION, bytes.getInt());
+        assertEquals(SAMPLE_RATE, bytes.getInt());
+        assertEquals(SAMPLE_RATE, bytes.getInt());
+        assertEquals(TempoHistory.FANOUT, bytes.getInt());
+        assertEquals(TempoHistory.LEVELS, bytes.getInt());
+
+        // Every level starts at bucket 0 and ends with the open one. Level 0 has seconds
+        // 0 to 9, level 1 has 4 seconds per bucket, and each further level has a single bucket
+        // for all of it, whose median is that of its children's medians.
+        float[][][] expected = {
+                {{100, 100, 100}, {}, {120, 120, 120}, {}, {}, {}, {}, {}, {}, {140, 150, 145}},
+                {{100, 120, 110}, {}, {140, 150, 145}},
+                {{100, 150, 127.5f}},
+                {{100, 150, 127.5f}},
+                {{100, 150, 127.5f}},
+                {{100, 150, 127.5f}},
+        };
+        for (float[][] level : expected) {
+            assertEquals(0, bytes.getLong());
+            assertEquals(level.length, bytes.getLong());
+            for (float[] bucket : level) {
+                for (int i = 0; i < 3; i++) {
+                    char centi = bytes.getChar();
+                    assertEquals(bucket.length != 0 ? Math.round(bucket[i] * 100) : 0, centi);
+                }
+            }
+        }
+        assertFalse(bytes.hasRemaining());
+    }
+
+    @Test
+    public void exportCsv_includesTheOpenSecond() throws IOException {
+        TempoHistory history = new TempoHistory(SAMPLE_RATE);
+        history.add(frames(0.5), 120);
+        history.add(frames(1.5), 121.5f);
+
+        File file = folder.newFile("tempo.csv");
+        history.exportCsv(file);
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals("seconds,min,max,median", lines.get(0));
+        assertEquals("0,120.00,120.00,120.00", lines.get(1));
+        assertEquals("1,121.50,121.50,121.50", lines.get(2));
+        assertEquals(3, lines.size());
+    }
+}
@@ -0,0 +1,70 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class TracerNativeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void disable() {
+        Tracer.setEnabled(false);
+    }
+
+    private static String export(File file) throws IOException {
+        Tracer.export(file);
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void export_writesTheSpans() throws IOException {
+        Tracer.setEnabled(true);
+        Tracer.end("test.span", Tracer.begin(), 1234);
+        Tracer.span("test.latency", 1_000_000, 3_000_000, -1);
+        String json = export(folder.newFile("trace.json"));
+
+        assertTrue(json.startsWith("{\"traceEvents\":["));
+        assertTrue(json.endsWith("],\"displayTimeUnit\":\"ms\"}"));
+        assertTrue(json.contains("\"name\":\"test.span\""));
+        assertTrue(json.contains("\"args\":{\"position\":1234}"));
+        assertTrue(json.contains(
+                "\"name\":\"test.latency\",\"cat\":\"java\",\"ph\":\"X\""));
+        assertTrue(json.contains("\"ts\":1000.000,\"dur\":2000.000}"));
+    }
+
+    @Test
+    public void export_clearsTheSpans() throws IOException {
+        Tracer.setEnabled(true);
+        Tracer.end("test.cleared", Tracer.begin(), -1);
+        export(folder.newFile("first.json"));
+        assertFalse(export(folder.newFile("second.json")).contains("test.cleared"));
+    }
+
+    @Test
+    public void export_escapesThreadNames() throws IOException, InterruptedException {
+        Tracer.setEnabled(true);
+        Thread thread = new Thread(() -> Tracer.end("test.named", Tracer.begin(), -1),
+                "say \"hi\" \\ bye\n");
+        thread.start();
+        thread.join();
+        String json = export(folder.newFile("trace.json"));
+        assertTrue(json.contains("\"name\":\"say \\\"hi\\\" \\\\ bye\\u000a\""));
+    }
+
+    @Test
+    public void disabled_recordsNothing() throws IOException {
+        assertEquals(0, Tracer.begin());
+        Tracer.end("test.disabled", 0, -1);
+        assertFalse(export(folder.newFile("trace.json")).contains("test.disabled"));
+    }
+}
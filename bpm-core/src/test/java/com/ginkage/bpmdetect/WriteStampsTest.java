@@ -0,0 +1,62 @@
+package com.ginkage.bpmdetect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WriteStampsTest {
+    private static final int BLOCK = 256;
+
+    /** Adds {@code blocks} blocks of {@link #BLOCK} samples, each captured at its index. */
+    private static WriteStamps write(int blocks) {
+        WriteStamps stamps = new WriteStamps();
+        for (int k = 0; k < blocks; k++) {
+            stamps.add((long) (k + 1) * BLOCK, k);
+        }
+        return stamps;
+    }
+
+    @Test
+    public void lookup_findsTheBlockBeforeThePosition() {
+        WriteStamps stamps = write(4);
+        assertEquals(0, stamps.lookup(1));
+        assertEquals(0, stamps.lookup(BLOCK));
+        assertEquals(1, stamps.lookup(BLOCK + 1));
+        assertEquals(3, stamps.lookup(4 * BLOCK));
+    }
+
+    @Test
+    public void lookup_doesNotKnowTheFuture() {
+        assertEquals(-1, new WriteStamps().lookup(1));
+        assertEquals(-1, write(4).lookup(4 * BLOCK + 1));
+    }
+
+    @Test
+    public void lookup_readsAcrossTheWrapAround() {
+        int blocks = WriteStamps.CAPACITY + 100;
+        WriteStamps stamps = write(blocks);
+        assertEquals(blocks - 1, stamps.lookup((long) blocks * BLOCK));
+        // Stored just before and after the end of the arrays
+        int last = WriteStamps.CAPACITY - 1;
+        assertEquals(last, stamps.lookup((long) last * BLOCK + 1));
+        assertEquals(last + 1, stamps.lookup((long) (last + 1) * BLOCK + 1));
+    }
+
+    @Test
+    public void lookup_stopsAtTheMargin() {
+        int blocks = WriteStamps.CAPACITY + 100;
+        WriteStamps stamps = write(blocks);
+        // Readers may look at the oldest block, but not at where it starts
+        int oldest = blocks - WriteStamps.CAPACITY + WriteStamps.MARGIN;
+        assertEquals(oldest + 1, stamps.lookup((long) (oldest + 1) * BLOCK + 1));
+        assertEquals(-1, stamps.lookup((long) oldest * BLOCK + 1));
+        assertEquals(-1, stamps.lookup(1));
+    }
+
+    @Test
+    public void lookup_readsTheFirstBlockUntilTheMargin() {
+        int blocks = WriteStamps.CAPACITY - WriteStamps.MARGIN;
+        assertEquals(0, write(blocks).lookup(1));
+        assertEquals(-1, write(blocks + 1).lookup(1));
+    }
+}